@@ -0,0 +1,167 @@
+/* Portable version of Kappa_BD.sql, with BD update.sql applied : the schema of the embedded database (DB_BACKEND=EMBEDDED).
+   Only standard SQL is used : no schema prefix, no storage clauses, VARCHAR instead of VARCHAR2, INTEGER instead of NUMBER(*,0).
+   The ids are VARCHAR(10), like REPAYMENT_ID since BD update.sql, so that benchmarks can load more than 99 rows per table.
+   Keep it in sync with Kappa_BD.sql and BD update.sql.
+   The server splits this script itself, without parsing SQL : the comments are removed and the statements split on ';',
+   even inside string literals. Never put ';', "--" nor "/*" in a string literal. */
+
+/* USERS */
+CREATE TABLE USERS
+(
+  "Login" VARCHAR(150) PRIMARY KEY,
+  "Password" VARCHAR(150),
+  "Authorization_Level" INTEGER
+);
+
+/* EMPLOYEES : points to the Users table instead of having login information within */
+CREATE TABLE EMPLOYEES
+(
+  EMPLOYEE_ID VARCHAR(10) PRIMARY KEY,
+  FIRST_NAME VARCHAR(150) NOT NULL,
+  LAST_NAME VARCHAR(150),
+  TYPE VARCHAR(20) NOT NULL CHECK (TYPE IN ('advisor','dsi','director')),
+  USER_LOGIN VARCHAR(150) REFERENCES USERS("Login")
+);
+
+/* CUSTOMERS : points to the Users table, as well as to their advisor */
+CREATE TABLE CUSTOMERS
+(
+  CUSTOMER_ID VARCHAR(10) PRIMARY KEY,
+  FIRST_NAME VARCHAR(150),
+  LAST_NAME VARCHAR(150),
+  AGE VARCHAR(150),
+  SEX VARCHAR(150),
+  ACTIVITY VARCHAR(150),
+  ADRESS VARCHAR(150),
+  ADVISOR_ID VARCHAR(10) REFERENCES EMPLOYEES(EMPLOYEE_ID),
+  USER_LOGIN VARCHAR(150) REFERENCES USERS("Login")
+);
+
+/* ACCOUNTS */
+CREATE TABLE ACCOUNTS
+(
+  ACCOUNT_ID VARCHAR(10) PRIMARY KEY,
+  CUSTOMER_ID VARCHAR(10) REFERENCES CUSTOMERS(CUSTOMER_ID),
+  ACCOUNT_NUM VARCHAR(150) NOT NULL,
+  CREATION_DATE DATE NOT NULL,
+  BALANCE INTEGER
+);
+
+/* LOAN TYPES */
+CREATE TABLE LOAN_TYPES
+(
+  LOAN_TYPE_ID VARCHAR(10) PRIMARY KEY,
+  NAME VARCHAR(150),
+  MAX_DURATION INTEGER
+);
+
+/* LOAN RATE HISTORY */
+CREATE TABLE LOAN_RATE_HISTORY
+(
+  LRH_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_TYPE_ID VARCHAR(10) REFERENCES LOAN_TYPES(LOAN_TYPE_ID),
+  EMPLOYEE_ID VARCHAR(10) REFERENCES EMPLOYEES(EMPLOYEE_ID),
+  "VALUE" FLOAT NOT NULL,
+  CHANGE_DATE DATE NOT NULL
+);
+
+/* LOANS : has a name, and an insurance parameter */
+CREATE TABLE LOANS
+(
+  LOAN_ID VARCHAR(10) PRIMARY KEY,
+  IS_REAL VARCHAR(1),
+  ACCOUNT_ID VARCHAR(10) REFERENCES ACCOUNTS(ACCOUNT_ID),
+  LOAN_TYPE_ID VARCHAR(10) REFERENCES LOAN_TYPES(LOAN_TYPE_ID),
+  EFFECTIVE_DATE DATE NOT NULL,
+  CAPITAL FLOAT,
+  REMAININGOWEDCAPITAL FLOAT,
+  REPAYMENT_FREQUENCY INTEGER,
+  REMAINING_REPAYMENTS INTEGER,
+  REPAYMENT_CONSTANT FLOAT,
+  RATE_NATURE VARCHAR(20) NOT NULL CHECK (RATE_NATURE IN ('fixe rate','floating rate')),
+  AMORTIZATION_TYPE VARCHAR(20) NOT NULL CHECK (AMORTIZATION_TYPE IN ('steady','degressive')),
+  NAME VARCHAR(150),
+  INSURANCE FLOAT
+);
+
+/* REPAYMENTS : as recreated by BD update.sql */
+CREATE TABLE REPAYMENTS
+(
+  "REPAYMENT_ID" VARCHAR(10) PRIMARY KEY,
+  "Loan_Id" VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  "Date" DATE NOT NULL,
+  "CAPITAL" FLOAT NOT NULL,
+  "INTEREST" FLOAT NOT NULL,
+  "INSURANCE" FLOAT NOT NULL
+);
+
+/* EVENTS */
+CREATE TABLE RATEMODIFICATIONEVENTS
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  "DATE" DATE NOT NULL,
+  NEWVALUE FLOAT NOT NULL
+);
+
+CREATE TABLE LOANDURATIONCHANGEEVENTS
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  "DATE" DATE NOT NULL,
+  NEWVALUE FLOAT NOT NULL
+);
+
+CREATE TABLE INCOMECHANGEEVENTS
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  "DATE" DATE NOT NULL,
+  NEWVALUE FLOAT NOT NULL
+);
+
+CREATE TABLE MONTHLYCHANGE
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  "DATE" DATE NOT NULL,
+  NEWVALUE FLOAT NOT NULL
+);
+
+CREATE TABLE TRANSFERTOFPAYMENTEVENTS
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  STARTDATE DATE NOT NULL,
+  ENDDATE DATE NOT NULL
+);
+
+CREATE TABLE LOANREDEMPTIONEVENTS
+(
+  EVENT_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  STARTDATE DATE NOT NULL
+);
+
+/* INFORMATION */
+CREATE TABLE INFORMATION_TYPES
+(
+  INFORMATION_TYPE_ID VARCHAR(10) PRIMARY KEY,
+  NAME VARCHAR(150),
+  NATURE VARCHAR(150)
+);
+
+CREATE TABLE NECESSARY_INFORMATION
+(
+  NI_IC VARCHAR(10) PRIMARY KEY,
+  INFORMATION_TYPE_ID VARCHAR(10) REFERENCES INFORMATION_TYPES(INFORMATION_TYPE_ID),
+  LOAN_TYPE_ID VARCHAR(10) REFERENCES LOAN_TYPES(LOAN_TYPE_ID)
+);
+
+CREATE TABLE PROVIDED_INFORMATION
+(
+  PROVIDED_INORMATION_ID VARCHAR(10) PRIMARY KEY,
+  LOAN_ID VARCHAR(10) REFERENCES LOANS(LOAN_ID),
+  INFORMATION_TYPE_ID VARCHAR(10) REFERENCES INFORMATION_TYPES(INFORMATION_TYPE_ID),
+  "VALUE" FLOAT
+);
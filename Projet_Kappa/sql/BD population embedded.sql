@@ -0,0 +1,94 @@
+/* Portable version of BD population.sql : the data of the embedded database (DB_BACKEND=EMBEDDED).
+   The ids are written out instead of coming from sequences, and the dates are ANSI literals, so that any SQL database can load it.
+   The server splits this script itself, without parsing SQL : the comments are removed and the statements split on ';',
+   even inside string literals. Never put ';', "--" nor "/*" in a string literal. */
+
+/* USERS */
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Valentin', 'Valentin', 1);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Anges', 'Anges', 1);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Boubacar', 'Boubacar', 2);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Marc', 'Marc', 3);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('DSI', 'DSI', 4);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Lynda', 'Lynda', 2);
+INSERT INTO USERS ("Login", "Password", "Authorization_Level") VALUES ('Mohammed', 'Mohammed', 1);
+
+/* EMPLOYEES */
+INSERT INTO EMPLOYEES (EMPLOYEE_ID, FIRST_NAME, LAST_NAME, TYPE, USER_LOGIN) VALUES ('1', 'Boubacar', 'Ndiaye', 'advisor', 'Boubacar');
+INSERT INTO EMPLOYEES (EMPLOYEE_ID, FIRST_NAME, LAST_NAME, TYPE, USER_LOGIN) VALUES ('2', 'Lynda', 'Hamadache', 'advisor', 'Lynda');
+INSERT INTO EMPLOYEES (EMPLOYEE_ID, FIRST_NAME, LAST_NAME, TYPE, USER_LOGIN) VALUES ('3', 'Marc', 'Mefoung Efontse', 'director', 'Marc');
+INSERT INTO EMPLOYEES (EMPLOYEE_ID, FIRST_NAME, LAST_NAME, TYPE, USER_LOGIN) VALUES ('4', 'DSI', 'DSI', 'dsi', 'DSI');
+
+/* CUSTOMERS */
+INSERT INTO CUSTOMERS (CUSTOMER_ID, FIRST_NAME, LAST_NAME, AGE, SEX, ACTIVITY, ADRESS, ADVISOR_ID, USER_LOGIN) VALUES ('1', 'Valentin', 'Prevost', '23', 'M', 'Etudiant', 'x', '2', 'Valentin');
+INSERT INTO CUSTOMERS (CUSTOMER_ID, FIRST_NAME, LAST_NAME, AGE, SEX, ACTIVITY, ADRESS, ADVISOR_ID, USER_LOGIN) VALUES ('2', 'Anges', 'Ibovi', '22', 'F', 'Etudiante', 'y', '1', 'Anges');
+INSERT INTO CUSTOMERS (CUSTOMER_ID, FIRST_NAME, LAST_NAME, AGE, SEX, ACTIVITY, ADRESS, ADVISOR_ID, USER_LOGIN) VALUES ('3', 'Mohammed', 'Mohammed', '24', 'M', 'Etudiant', 'x', '2', 'Mohammed');
+
+/* ACCOUNTS */
+INSERT INTO ACCOUNTS (ACCOUNT_ID, CUSTOMER_ID, ACCOUNT_NUM, CREATION_DATE, BALANCE) VALUES ('1', '1', '4109TLKFDK123', DATE '2008-12-12', 1235);
+INSERT INTO ACCOUNTS (ACCOUNT_ID, CUSTOMER_ID, ACCOUNT_NUM, CREATION_DATE, BALANCE) VALUES ('2', '1', '5546d54s5e2z1', DATE '2008-08-15', 155);
+INSERT INTO ACCOUNTS (ACCOUNT_ID, CUSTOMER_ID, ACCOUNT_NUM, CREATION_DATE, BALANCE) VALUES ('3', '2', 'ikrg6z5g42zz', DATE '2012-04-28', 2341);
+INSERT INTO ACCOUNTS (ACCOUNT_ID, CUSTOMER_ID, ACCOUNT_NUM, CREATION_DATE, BALANCE) VALUES ('4', '3', '655213579532dd', DATE '1994-09-12', 18286);
+INSERT INTO ACCOUNTS (ACCOUNT_ID, CUSTOMER_ID, ACCOUNT_NUM, CREATION_DATE, BALANCE) VALUES ('5', '3', 'aas45z65sss458', DATE '2016-02-01', 235);
+
+/* LOAN TYPES */
+INSERT INTO LOAN_TYPES (LOAN_TYPE_ID, NAME, MAX_DURATION) VALUES ('1', 'Pret etudiant', 9);
+INSERT INTO LOAN_TYPES (LOAN_TYPE_ID, NAME, MAX_DURATION) VALUES ('2', 'Pret immobilier', 25);
+INSERT INTO LOAN_TYPES (LOAN_TYPE_ID, NAME, MAX_DURATION) VALUES ('3', 'Pret conso', 2);
+
+/* LOAN RATE HISTORY */
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('1', '1', '4', 3.0, DATE '2007-04-21');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('2', '2', '4', 5.0, DATE '2007-04-21');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('3', '3', '4', 7.55, DATE '2007-04-21');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('4', '1', '3', 3.05, DATE '2009-02-04');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('5', '1', '3', 3.15, DATE '2011-05-11');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('6', '1', '3', 3.1, DATE '2013-07-10');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('7', '1', '3', 2.95, DATE '2015-11-04');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('8', '2', '3', 5.5, DATE '2010-12-14');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('9', '3', '3', 9.3, DATE '2008-08-08');
+INSERT INTO LOAN_RATE_HISTORY (LRH_ID, LOAN_TYPE_ID, EMPLOYEE_ID, "VALUE", CHANGE_DATE) VALUES ('10', '3', '3', 8.5, DATE '2014-03-08');
+
+/* LOANS */
+INSERT INTO LOANS (LOAN_ID, IS_REAL, ACCOUNT_ID, LOAN_TYPE_ID, EFFECTIVE_DATE, CAPITAL, REMAININGOWEDCAPITAL, REPAYMENT_FREQUENCY, REMAINING_REPAYMENTS, REPAYMENT_CONSTANT, INSURANCE, RATE_NATURE, AMORTIZATION_TYPE, NAME)
+VALUES ('1', 'Y', '1', '1', DATE '2015-08-28', 18000, 18000, 12, 108, 166.66, 12.01, 'fixe rate', 'degressive', 'Pret etudiant Valentin ESIAG');
+INSERT INTO LOANS (LOAN_ID, IS_REAL, ACCOUNT_ID, LOAN_TYPE_ID, EFFECTIVE_DATE, CAPITAL, REMAININGOWEDCAPITAL, REPAYMENT_FREQUENCY, REMAINING_REPAYMENTS, REPAYMENT_CONSTANT, INSURANCE, RATE_NATURE, AMORTIZATION_TYPE, NAME)
+VALUES ('2', 'N', '1', '3', DATE '2011-01-21', 180, 180, 4, 4, 55, 0, 'fixe rate', 'steady', 'Simu pret conso PC Valentin');
+INSERT INTO LOANS (LOAN_ID, IS_REAL, ACCOUNT_ID, LOAN_TYPE_ID, EFFECTIVE_DATE, CAPITAL, REMAININGOWEDCAPITAL, REPAYMENT_FREQUENCY, REMAINING_REPAYMENTS, REPAYMENT_CONSTANT, INSURANCE, RATE_NATURE, AMORTIZATION_TYPE, NAME)
+VALUES ('3', 'N', '3', '2', DATE '2016-08-28', 28000, 28000, 12, 132, 212.12, 1.5, 'fixe rate', 'degressive', 'Simu achat maison 1');
+INSERT INTO LOANS (LOAN_ID, IS_REAL, ACCOUNT_ID, LOAN_TYPE_ID, EFFECTIVE_DATE, CAPITAL, REMAININGOWEDCAPITAL, REPAYMENT_FREQUENCY, REMAINING_REPAYMENTS, REPAYMENT_CONSTANT, INSURANCE, RATE_NATURE, AMORTIZATION_TYPE, NAME)
+VALUES ('4', 'N', '3', '2', DATE '2016-08-28', 28000, 28000, 3, 33, 848.48, 1.5, 'fixe rate', 'degressive', 'Simu achat maison 2 - paiement ts les 4 mois');
+INSERT INTO LOANS (LOAN_ID, IS_REAL, ACCOUNT_ID, LOAN_TYPE_ID, EFFECTIVE_DATE, CAPITAL, REMAININGOWEDCAPITAL, REPAYMENT_FREQUENCY, REMAINING_REPAYMENTS, REPAYMENT_CONSTANT, INSURANCE, RATE_NATURE, AMORTIZATION_TYPE, NAME)
+VALUES ('5', 'N', '3', '2', DATE '2016-08-28', 28000, 28000, 12, 132, 267.79, 1.5, 'fixe rate', 'steady', 'Simu achat maison 3 - echeances constantes');
+
+/* REPAYMENTS */
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('1', '1', DATE '2018-10-11', 166.66, 46.5, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('2', '1', DATE '2018-11-11', 166.66, 46.06946, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('3', '1', DATE '2018-12-11', 166.66, 45.63892, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('4', '1', DATE '2019-01-11', 166.66, 45.20838, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('5', '1', DATE '2019-02-11', 166.66, 44.77784, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('6', '1', DATE '2019-03-11', 166.66, 44.3473, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('7', '1', DATE '2019-04-11', 166.66, 43.91676, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('8', '1', DATE '2019-05-11', 166.66, 43.48622, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('9', '1', DATE '2019-06-11', 166.66, 43.05568, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('10', '1', DATE '2019-07-11', 166.66, 42.62514, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('11', '1', DATE '2019-08-11', 166.66, 42.1946, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('12', '1', DATE '2019-09-11', 166.66, 41.76406, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('13', '1', DATE '2019-10-11', 166.66, 41.33352, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('14', '1', DATE '2019-11-11', 166.66, 40.90298, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('15', '1', DATE '2019-12-11', 166.66, 40.47244, 12.01);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('16', '3', DATE '2016-09-28', 212.12, 93.33, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('17', '3', DATE '2016-10-28', 212.12, 92.623, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('18', '3', DATE '2016-11-28', 212.12, 91.916, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('19', '3', DATE '2016-12-28', 212.12, 91.209, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('20', '3', DATE '2017-01-28', 212.12, 90.502, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('21', '3', DATE '2017-02-28', 212.12, 89.795, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('22', '3', DATE '2017-03-28', 212.12, 89.088, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('23', '3', DATE '2017-04-28', 212.12, 88.381, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('24', '3', DATE '2017-05-28', 212.12, 87.674, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('25', '3', DATE '2017-06-28', 212.12, 86.967, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('26', '3', DATE '2017-07-28', 212.12, 86.26, 1.5);
+INSERT INTO REPAYMENTS ("REPAYMENT_ID", "Loan_Id", "Date", "CAPITAL", "INTEREST", "INSURANCE") VALUES ('27', '3', DATE '2017-08-28', 212.12, 85.553, 1.5);
+
+/* EVENTS */
+INSERT INTO RATEMODIFICATIONEVENTS (EVENT_ID, LOAN_ID, "DATE", NEWVALUE) VALUES ('1', '3', DATE '2018-01-01', 4.5);
+INSERT INTO TRANSFERTOFPAYMENTEVENTS (EVENT_ID, LOAN_ID, STARTDATE, ENDDATE) VALUES ('1', '3', DATE '2019-06-01', DATE '2019-09-01');
+INSERT INTO MONTHLYCHANGE (EVENT_ID, LOAN_ID, "DATE", NEWVALUE) VALUES ('1', '5', DATE '2020-01-01', 300);
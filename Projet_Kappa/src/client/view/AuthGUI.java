@@ -11,10 +11,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowStateListener;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.Properties;
 
@@ -29,15 +28,25 @@ import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import model.query.AuthenticationQuery;
+import model.query.FramingQuery;
 import model.response.AuthenticationServerResponse;
+import model.response.FramingServerResponse;
+import util.Compression;
+import util.Framing;
 import util.JsonImpl;
 import util.KappaProperties;
+import util.MessageReader;
+import util.MessageWriter;
 
 /**
  * A Jframe used for the authentication phase.
- * @version R3 Sprint 2 - 29/04/2016
+ * @version R3 sprint 3
  * @Author Kappa-V
  * @Changes
+ * 		R3 sprint 2 -> R3 sprint 3:</br>
+ * 			-Messages are read and written through MessageReader and MessageWriter, which are handed over on login</br>
+ * 			-Negotiates LENGTH framing and compression when CLIENT_COMPRESSION=TRUE</br>
+ * 			-Handles the BUSY response
  * 		R3 sprint 1 -> R3 sprint 2:</br>
  * 			-Moved the main method to the MainMenuGUI class
  */
@@ -48,7 +57,7 @@ public class AuthGUI extends JFrame {
 	 * An interface used like the Runnable interface, but with parameters.
 	 */
 	public interface OnSuccessfulLoginRunnable {
-		public void run(Socket S, int authorization_level);
+		public void run(Socket S, MessageReader in, MessageWriter out, int authorization_level);
 	}
 	
 	/**
@@ -67,8 +76,13 @@ public class AuthGUI extends JFrame {
 		// Socket initialization
 		Properties prop = KappaProperties.getInstance();
 		final Socket connection = new Socket("localhost", Integer.parseInt(prop.getProperty("SERVER_PORT")));
-		final PrintWriter out = new PrintWriter(connection.getOutputStream(), true);
-		final BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+		final MessageWriter out = new MessageWriter(new BufferedOutputStream(connection.getOutputStream()));
+		final MessageReader in = new MessageReader(new BufferedInputStream(connection.getInputStream()));
+		
+		// Compression negotiation : must be the very first message
+		if(prop.getProperty("CLIENT_COMPRESSION", "FALSE").equals("TRUE")) {
+			negotiateCompression(in, out, Integer.parseInt(prop.getProperty("COMPRESSION_THRESHOLD", "4096")));
+		}
 		
 		
 		// Cleanup planning  
@@ -78,8 +92,8 @@ public class AuthGUI extends JFrame {
 		addWindowStateListener(new WindowStateListener() {
 			public void windowStateChanged(WindowEvent e) {
 				if(e.getNewState() == WindowEvent.WINDOW_CLOSED) {
-					out.println("BYE");
 					try {
+						out.write("BYE");
 						connection.close();
 					} catch (IOException e1) {
 						e1.printStackTrace(); // For debug purposes.
@@ -195,10 +209,10 @@ public class AuthGUI extends JFrame {
 								try {
 									// Sending the login credentials over to the server
 									AuthenticationQuery query = new AuthenticationQuery(loginField.getText(), new String(passwordField.getPassword()));
-									out.println(query.toString());
+									out.write(query.toString());
 									
 									// Receiving the server's response
-									String message = in.readLine();
+									String message = in.read();
 									
 									//Treating the server's response
 									try {
@@ -218,6 +232,10 @@ public class AuthGUI extends JFrame {
 											JOptionPane.showMessageDialog(thisObject, "Format error. Try downloading the newest version.");
 											break;
 										
+										case "BUSY":
+											JOptionPane.showMessageDialog(thisObject, "The server is busy. Please try again in a moment.");
+											break;
+										
 										case "OK":
 											// De-serialization
 											AuthenticationServerResponse response = JsonImpl.fromJson(content, AuthenticationServerResponse.class);
@@ -232,7 +250,7 @@ public class AuthGUI extends JFrame {
 														thisObject.dispose();
 													}
 												});
-												onSuccessfulLogin.run(connection, response.getYour_authorization_level()); // This is where the callable is used
+												onSuccessfulLogin.run(connection, in, out, response.getYour_authorization_level()); // This is where the callable is used
 												break;
 											
 											// Unsuccessful connection attempt
@@ -263,4 +281,26 @@ public class AuthGUI extends JFrame {
 			}
 		});
 	}
+	
+	/**
+	 * Asks the server for LENGTH framing with DEFLATE compression, and switches to it if the server agrees.
+	 * Otherwise (in example, with an older server), the connection stays in LINE mode.
+	 * @param compressionThreshold : the messages of at least this many bytes sent to the server are compressed.
+	 * @throws IOException - if the server is unavailable.
+	 */
+	private static void negotiateCompression(MessageReader in, MessageWriter out, int compressionThreshold) throws IOException {
+		out.write(new FramingQuery(Framing.LENGTH, Compression.DEFLATE).toString());
+		String message = in.read();
+		if(message == null || !message.startsWith("OK ")) {
+			return;
+		}
+		
+		FramingServerResponse response = JsonImpl.fromJson(message.substring(3), FramingServerResponse.class);
+		in.setFraming(response.getMode());
+		out.setFraming(response.getMode());
+		if(response.getCompression() == Compression.DEFLATE) {
+			in.setCompression(true);
+			out.setCompressionThreshold(compressionThreshold);
+		}
+	}
 }
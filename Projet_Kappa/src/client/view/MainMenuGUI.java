@@ -6,7 +6,6 @@ import java.awt.GraphicsEnvironment;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.HashSet;
 import java.util.Set;
@@ -18,12 +17,18 @@ import javax.swing.JTabbedPane;
 
 import util.JsonImpl;
 import util.KappaProperties;
+import util.MessageReader;
+import util.MessageWriter;
 
 /**
  * A GUI containing tabs.</br> 
  * You can navigate between tabs by clicking on their names at the top of the frame.
  * @author Kappa-V
- * @version R3 sprint 2
+ * @version R3 sprint 3
+ * @changes
+ * 		R3 sprint 2 -> R3 sprint 3:</br>
+ * 			-The tabs are given the session's MessageReader and MessageWriter along with its socket, 
+ * 			since the framing and compression negotiated by AuthGUI apply to the whole session
  */
 @SuppressWarnings("serial") // Is not going to be serialized
 public class MainMenuGUI extends JDialog implements AuthGUI.OnSuccessfulLoginRunnable { // JDialog disables the minimize and maximize buttons
@@ -38,6 +43,11 @@ public class MainMenuGUI extends JDialog implements AuthGUI.OnSuccessfulLoginRun
 	 */
 	private Socket socket = null;
 	
+	/**
+	 * This session's message writer, initialized in AuthGUI.OnSuccessfulLoginRunable.run
+	 */
+	private MessageWriter out = null;
+	
 	/**
 	 * The tabbed pane.</br>
 	 * It is initialized in the constructor, and filled in AuthGUI.OnSuccessfulLoginRunable.run
@@ -60,8 +70,7 @@ public class MainMenuGUI extends JDialog implements AuthGUI.OnSuccessfulLoginRun
                 if(socket != null) {
                 	if(!socket.isClosed()) {
                 		try {
-                			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                			out.println("BYE");
+                			out.write("BYE");
                 			socket.close();
                 		} catch (IOException e) {
                 			// Do nothing
@@ -83,14 +92,17 @@ public class MainMenuGUI extends JDialog implements AuthGUI.OnSuccessfulLoginRun
 	/**
 	 * @param authorization_level : used to determine which tabs to display
 	 * @param S : the socket for this session
+	 * @param in : reads the server's responses
+	 * @param out : writes the queries
 	 */
 	@Override
-	public void run(Socket S, int authorization_level) {
+	public void run(Socket S, MessageReader in, MessageWriter out, int authorization_level) {
 		this.socket = S;
+		this.out = out;
 		
 		for(Tab t : tabs) {
 			if(t.authorizationLevel <= authorization_level) {
-				t.setSocket(S);
+				t.setConnection(S, in, out);
 				tabbedPane.addTab(t.name, t);
 			}
 		}
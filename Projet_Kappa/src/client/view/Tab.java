@@ -4,18 +4,25 @@ import java.net.Socket;
 
 import javax.swing.JPanel;
 
+import util.MessageReader;
+import util.MessageWriter;
+
 @SuppressWarnings("serial") // Is not going to be serialized
 public abstract class Tab extends JPanel {
 	public final String name;
 	public final int authorizationLevel;
 	protected Socket S;
+	protected MessageReader in;
+	protected MessageWriter out;
 	
 	public Tab(String name, int authorizationLevel) {
 		this.name = name;
 		this.authorizationLevel = authorizationLevel;
 	}
 	
-	public void setSocket(Socket S) {
+	public void setConnection(Socket S, MessageReader in, MessageWriter out) {
 		this.S=S;
+		this.in=in;
+		this.out=out;
 	}
 }
@@ -0,0 +1,53 @@
+package model.query;
+
+import util.Compression;
+import util.Framing;
+import util.JsonImpl;
+
+/**
+ * Communication class. See the protocol's documentation for more details.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class FramingQuery {
+	// Attributes
+	private Framing mode;
+	private Compression compression; // Optional : null means NONE
+	
+	// toString method
+	@Override
+	public String toString() {
+		return "FRAMING " + JsonImpl.toJson(this);
+	}
+
+	// constructor
+	public FramingQuery(Framing mode) {
+		super();
+		this.mode = mode;
+	}
+	
+	public FramingQuery(Framing mode, Compression compression) {
+		super();
+		this.mode = mode;
+		this.compression = compression;
+	}
+
+	
+	// getters and setters
+	
+	public Framing getMode() {
+		return mode;
+	}
+
+	public void setMode(Framing mode) {
+		this.mode = mode;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+}
@@ -4,14 +4,19 @@ import util.JsonImpl;
 
 /**
  * Communication class. See the protocol's documentation for more details.
- * @version R3 sprint 2 - 28/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R3 sprint 2 -> R3 sprint 3: </br>
+ * 			-optional limit and after attributes, for keyset pagination
  */
 public class GetAccountsQuery {
 	// Attributes
 	private String firstName;
 	private String lastName;
 	private boolean myCustomers;
+	private Integer limit; // Optional : the maximum number of accounts in the response
+	private String after; // Optional : the nextCursor of the previous page
 	
 	// toString method
 	@Override
@@ -27,6 +32,12 @@ public class GetAccountsQuery {
 		this.myCustomers = myCustomers;
 	}
 	
+	public GetAccountsQuery(String firstName, String lastName, boolean myCustomers, Integer limit, String after) {
+		this(firstName, lastName, myCustomers);
+		this.limit = limit;
+		this.after = after;
+	}
+	
 	
 	
 	// getters and setters
@@ -54,6 +65,22 @@ public class GetAccountsQuery {
 	public void setMyCustomers(boolean myCustomers) {
 		this.myCustomers = myCustomers;
 	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public String getAfter() {
+		return after;
+	}
+
+	public void setAfter(String after) {
+		this.after = after;
+	}
 	
 	
 }
@@ -4,12 +4,17 @@ import util.JsonImpl;
 
 /**
  * Communication class. See the protocol's documentation for more details.
- * @version R3 sprint 2 - 28/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R3 sprint 2 -> R3 sprint 3: </br>
+ * 			-optional limit and after attributes, for keyset pagination
  */
 public class GetSimsQuery {
 	// Attributes
 	private String account_id;
+	private Integer limit; // Optional : the maximum number of simulations in the response
+	private String after; // Optional : the nextCursor of the previous page
 	
 	// toString method
 	@Override
@@ -22,6 +27,12 @@ public class GetSimsQuery {
 		super();
 		this.account_id = account_id;
 	}
+	
+	public GetSimsQuery(String account_id, Integer limit, String after) {
+		this(account_id);
+		this.limit = limit;
+		this.after = after;
+	}
 
 	
 	// getters and setters
@@ -33,4 +44,20 @@ public class GetSimsQuery {
 	public void setAccount_id(String account_id) {
 		this.account_id = account_id;
 	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public String getAfter() {
+		return after;
+	}
+
+	public void setAfter(String after) {
+		this.after = after;
+	}
 }
@@ -0,0 +1,48 @@
+package model.response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.JsonImpl;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Communication class. See the protocol's documentation for more details.</br>
+ * Each response is the JSON object of a regular response, with an additional "prefix" attribute : "OK", "ERR" or "UNAUTHORIZED".
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class BatchServerResponse extends ServerResponse {
+	// Attributes
+	private List<JsonObject> responses;
+	
+	public BatchServerResponse(List<JsonObject> responses) {
+		super();
+		this.responses = responses;
+	}
+	
+	// Constructor and adder for easier server-side construction
+	public BatchServerResponse() {
+		super();
+		this.responses = new ArrayList<>();
+	}
+	
+	public void addResponse(ServerResponse response) {
+		JsonObject json = JsonImpl.toJsonTree(response).getAsJsonObject();
+		json.addProperty("prefix", response.getPrefix());
+		responses.add(json);
+	}
+	
+	
+	
+	// Getters and setters
+	
+	public List<JsonObject> getResponses() {
+		return responses;
+	}
+
+	public void setResponses(List<JsonObject> responses) {
+		this.responses = responses;
+	}
+}
@@ -0,0 +1,28 @@
+package model.response;
+
+/**
+ * Communication class. See the protocol's documentation for more details.</br>
+ * Sent when the server refuses a query because too many are already being handled. The client can retry it later.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class BusyServerResponse extends ServerResponse {
+	private String message;
+	
+	public BusyServerResponse(String message) {
+		this.message = message;
+	}
+	
+	public void setMessage(String message) {
+		this.message = message;
+	}
+	
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String getPrefix() {
+		return "BUSY";
+	}
+}
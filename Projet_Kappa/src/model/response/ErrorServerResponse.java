@@ -1,7 +1,5 @@
 package model.response;
 
-import util.JsonImpl;
-
 /**
  * Communication class. See the protocol's documentation for more details.
  * @version R1 sprint 4 - 06/02/2016
@@ -23,7 +21,7 @@ public class ErrorServerResponse extends ServerResponse {
 	}
 
 	@Override
-	public String toString() {
-		return "ERR " + JsonImpl.toJson(this);
+	public String getPrefix() {
+		return "ERR";
 	}
 }
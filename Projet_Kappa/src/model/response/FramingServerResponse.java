@@ -0,0 +1,41 @@
+package model.response;
+
+import util.Compression;
+import util.Framing;
+
+/**
+ * Communication class. See the protocol's documentation for more details.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class FramingServerResponse extends ServerResponse {
+	// Attributes
+	private Framing mode;
+	private Compression compression;
+	
+	public FramingServerResponse(Framing mode, Compression compression) {
+		super();
+		this.mode = mode;
+		this.compression = compression;
+	}
+
+	
+	
+	// Getters and setters
+	
+	public Framing getMode() {
+		return mode;
+	}
+
+	public void setMode(Framing mode) {
+		this.mode = mode;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+}
@@ -5,11 +5,15 @@ import java.util.List;
 
 /**
  * Communication class. See the protocol's documentation for more details.
- * @version R3 sprint 2 - 28/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R3 sprint 2 -> R3 sprint 3: </br>
+ * 			-nextCursor, set when there are more accounts than in this page
  */
 public class GetAccountsServerResponse extends ServerResponse {
 	private List<Account> accounts;
+	private String nextCursor; // null on the last page
 	
 	public GetAccountsServerResponse(List<Account> accounts) {
 		this.accounts = accounts;
@@ -22,6 +26,14 @@ public class GetAccountsServerResponse extends ServerResponse {
 	public void setAccounts(List<Account> accounts) {
 		this.accounts = accounts;
 	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
 	
 	// Constructor and adder for easier server-side construction
 	public GetAccountsServerResponse() {
@@ -5,8 +5,11 @@ import java.util.List;
 
 /**
  * Communication class. See the protocol's documentation for more details.
- * @version R3 sprint 2 - 28/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R3 sprint 2 -> R3 sprint 3: </br>
+ * 			-nextCursor, set when there are more simulations than in this page
  */
 public class GetSimsServerResponse extends ServerResponse {
 	// Inner class
@@ -39,6 +42,7 @@ public class GetSimsServerResponse extends ServerResponse {
 	// Parameters
 	
 	private List<SimulationIdentifier> simulations;
+	private String nextCursor; // null on the last page
 
 	
 	// For server-side deserialization
@@ -55,6 +59,14 @@ public class GetSimsServerResponse extends ServerResponse {
 	public void setSimulations(List<SimulationIdentifier> simulations) {
 		this.simulations = simulations;
 	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
 	
 	
 	// For client-side easier creation
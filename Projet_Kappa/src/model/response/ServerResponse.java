@@ -1,18 +1,40 @@
 package model.response;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import util.JsonImpl;
+import util.StreamableMessage;
 
 /**
  * Communication class. See the protocol's documentation for more details.
- * @version R3 sprint 1 - 13/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
  * @changes
+ * 		R3 sprint 1 -> R3 sprint 3 : </br>
+ * 			-added getPrefix, so that responses can be embedded in a BatchServerResponse with their prefix.
+ * 			-implements StreamableMessage : by default, writeTo writes the toString value.
  * 		R1 sprint 4 -> R3 sprint 1 : </br>
  * 			-changed the toString method from abstract to real. Gson's toJson method permitted this code factorization.
  */
-public abstract class ServerResponse {
+public abstract class ServerResponse implements StreamableMessage {
+	/**
+	 * @return the prefix of this response : "OK", unless the subclass says otherwise.
+	 */
+	public String getPrefix() {
+		return "OK";
+	}
+	
 	@Override
 	public String toString(){
-		return "OK " + JsonImpl.toJson(this);
+		return getPrefix() + " " + JsonImpl.toJson(this);
+	}
+	
+	/**
+	 * Writes the toString value. Responses which are too big to be built in memory override this.
+	 */
+	@Override
+	public void writeTo(Writer out) throws IOException {
+		out.write(toString());
 	}
 }
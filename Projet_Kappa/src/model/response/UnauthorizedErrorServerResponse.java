@@ -1,7 +1,5 @@
 package model.response;
 
-import util.JsonImpl;
-
 /**
  * Communication class. See the protocol's documentation for more details.
  * @author Kappa-V
@@ -14,8 +12,8 @@ public class UnauthorizedErrorServerResponse extends ServerResponse {
 	private int required_authorization_level;
 	
 	@Override
-	public String toString() {
-		return "UNAUTHORIZED " + JsonImpl.toJson(this);
+	public String getPrefix() {
+		return "UNAUTHORIZED";
 	}
 
 	public UnauthorizedErrorServerResponse(boolean connected, int your_authorization_level, int required_authorization_level) {
@@ -0,0 +1,168 @@
+package server;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the number of queries using the database which are handled at once.</br>
+ * The limit adapts to the database's latency (AIMD) : under load, it grows by one every "limit" fast queries, and shrinks
+ * by 10% when a query takes longer than the latency threshold, at most once every "limit" queries : the queries already
+ * in flight when it shrank were admitted under the old limit, and their latency must not make it shrink again.
+ * When the database slows down, the limit quickly drops, and the queries beyond it are refused right away instead of
+ * piling up on the connection pool.</br>
+ * The latency is measured from the moment a thread of the QueryScheduler starts handling the query : the time it waited
+ * in its queue depends on the other queries, not on the database.</br>
+ * Until init() is called, every query is admitted.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class AdmissionLimiter {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(AdmissionLimiter.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate AdmissionLimiter
+	 */
+	private AdmissionLimiter() {}
+	
+	/**
+	 * The factor applied to the limit when a query is too slow.
+	 */
+	private static final double BACKOFF_RATIO = 0.9;
+	
+	/**
+	 * Status attribute.
+	 */
+	private static AdmissionLimiterState state = AdmissionLimiterState.initial;
+	
+	/**
+	 * The current limit. A double, so that it can grow by fractions of a query.
+	 */
+	private static double limit;
+	private static int minLimit;
+	private static int maxLimit;
+	
+	/**
+	 * Queries slower than this, in nanoseconds, make the limit shrink.
+	 */
+	private static long latencyThreshold;
+	
+	/**
+	 * The number of admitted queries not yet released.
+	 */
+	private static int inFlight = 0;
+	
+	/**
+	 * The number of queries released since the limit last shrank. Stops counting at maxLimit : the limit can shrink again.
+	 */
+	private static int releasedSinceBackoff = 0;
+	
+	
+	
+	
+	/**
+	 * Must be called first.
+	 * @param initialLimit : the number of queries admitted at once at first.
+	 * @param minLimit : the limit never goes below this.
+	 * @param maxLimit : the limit never goes above this.
+	 * @param latencyThreshold : in milliseconds. Queries slower than this make the limit shrink.
+	 * @throws IllegalStateException : if AdmissionLimiter was already initialized.
+	 */
+	public static synchronized void init(int initialLimit, int minLimit, int maxLimit, long latencyThreshold) throws IllegalStateException {
+		logger.trace("Entering AdmissionLimiter.init");
+		
+		if(state == AdmissionLimiterState.ready) {
+			logger.trace("Exiting AdmissionLimiter.init with an IllegalStateException");
+			throw new IllegalStateException("AdmissionLimiter init - already initialized");
+		}
+		
+		AdmissionLimiter.minLimit = Math.max(1, minLimit);
+		AdmissionLimiter.maxLimit = Math.max(AdmissionLimiter.minLimit, maxLimit);
+		AdmissionLimiter.limit = Math.min(AdmissionLimiter.maxLimit, Math.max(AdmissionLimiter.minLimit, initialLimit));
+		AdmissionLimiter.latencyThreshold = latencyThreshold * 1000000;
+		inFlight = 0;
+		releasedSinceBackoff = AdmissionLimiter.maxLimit; // The first slow query can make it shrink
+		
+		state = AdmissionLimiterState.ready;
+		logger.trace("Exiting AdmissionLimiter.init");
+	}
+	
+	/**
+	 * Admits a query if the limit allows it. Never blocks.
+	 * @return true if the query can be handled, in which case release() must be called once it is.
+	 * False if the limit is reached.
+	 */
+	public static synchronized boolean tryAcquire() {
+		if(state != AdmissionLimiterState.ready) {
+			return true;
+		}
+		if(inFlight >= (int) limit) {
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+	
+	/**
+	 * Signals that an admitted query was handled, and adapts the limit to its latency.
+	 * @param latency : the time it took to handle the query, in nanoseconds, once dequeued by the QueryScheduler.
+	 * Negative if it is unknown : the limit is left as it is.
+	 */
+	public static synchronized void release(long latency) {
+		if(state != AdmissionLimiterState.ready) {
+			return;
+		}
+		boolean inUse = inFlight * 2 >= (int) limit;
+		inFlight--;
+		if(releasedSinceBackoff < maxLimit) {
+			releasedSinceBackoff++;
+		}
+		
+		if(latency < 0) {
+			return;
+		}
+		if(latency > latencyThreshold) {
+			if(releasedSinceBackoff < (int) limit) {
+				return; // Already shrunk for this window of queries
+			}
+			double newLimit = Math.max(minLimit, limit * BACKOFF_RATIO);
+			if((int) newLimit < (int) limit) {
+				logger.info("Slow query (" + (latency / 1000000) + " ms) : admission limit lowered to " + (int) newLimit);
+			}
+			limit = newLimit;
+			releasedSinceBackoff = 0;
+		} else if(inUse) {
+			// Only grows while at least half of the limit is used : an idle server doesn't learn anything about its database
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+	
+	/**
+	 * @return the current limit.
+	 */
+	public static synchronized int getLimit() {
+		return (int) limit;
+	}
+	
+	/**
+	 * @return the number of admitted queries not yet released.
+	 */
+	public static synchronized int getInFlight() {
+		return inFlight;
+	}
+	
+	/**
+	 * Admits every query again.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering AdmissionLimiter.cleanup");
+		state = AdmissionLimiterState.initial;
+		logger.trace("Exiting AdmissionLimiter.cleanup");
+	}
+}
+
+enum AdmissionLimiterState {
+	initial,
+	ready
+}
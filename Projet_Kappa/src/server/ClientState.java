@@ -0,0 +1,77 @@
+package server;
+
+/**
+ * Per-connection state : who the client is, and what they are allowed to do.</br>
+ * This used to be held by the Session thread itself. It is now a separate, lightweight object, so that connections
+ * which don't own a thread (see SelectorTransport) can carry it as an attachment.</br>
+ * Pipelined queries of the same client can be treated concurrently, so its attributes are volatile.</br>
+ * It also tells if the client's transport can stream responses.</br>
+ * An advisor's customers are resolved from the CustomerIndex when they log in, and held here for their myCustomers searches.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class ClientState {
+	/**
+	 * User id provided by the client during the authentication phase
+	 */
+	private volatile String user_id = null;
+	
+	/**
+	 * User authorization level as dictated by the database during the authentication phase.
+	 */
+	private volatile int authorization_level = 3;
+	
+	/**
+	 * The customers of the user, if they are an advisor. null until resolved, or once the user changes.
+	 */
+	private volatile CustomerIndex.MyCustomers myCustomers = null;
+	
+	/**
+	 * True if the responses are written to the client as they are built : only on the blocking transport, in LINE mode.
+	 * A LENGTH frame, or a SelectorConnection, needs the whole response first.
+	 */
+	private volatile boolean streamable = false;
+	
+	
+	
+	// Getters and setters
+	
+	public String getUser_id() {
+		return user_id;
+	}
+
+	public void setUser_id(String user_id) {
+		this.user_id = user_id;
+		this.myCustomers = null;
+	}
+
+	public int getAuthorization_level() {
+		return authorization_level;
+	}
+
+	public void setAuthorization_level(int authorization_level) {
+		this.authorization_level = authorization_level;
+	}
+
+	public boolean isStreamable() {
+		return streamable;
+	}
+
+	public void setStreamable(boolean streamable) {
+		this.streamable = streamable;
+	}
+
+	/**
+	 * Resolves the user's customers from the CustomerIndex, unless those already held are still up to date.
+	 * Never uses the database.
+	 * @return the customers of the user. null if the CustomerIndex is not loaded : the database must be queried instead.
+	 */
+	CustomerIndex.MyCustomers getMyCustomers() {
+		CustomerIndex.MyCustomers current = myCustomers;
+		if(current == null || !CustomerIndex.isCurrent(current)) {
+			current = CustomerIndex.myCustomers(user_id);
+			myCustomers = current; // Two concurrent queries may both resolve them : either result is up to date
+		}
+		return current;
+	}
+}
@@ -1,10 +1,25 @@
 package server;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -12,9 +27,31 @@ import util.KappaProperties;
 
 /**
  * This class grants access to database connections in a very quick fashion, by managing a pool of them
- * created on program launch.
- * @version R2 sprint 1 - 16/03/2016
+ * created on program launch.</br>
+ * The idle connections are kept in a lock-free deque, used as a stack : the most recently released connection is the
+ * first one handed out again, which keeps the busy connections' caches warm and lets the others rest.</br>
+ * The pool is elastic : it opens "min size" connections on launch, in parallel, and opens more when every idle connection is in use,
+ * up to "max size" connections. Beyond that, acquire() waits for a connection to be released, until its timeout.
+ * The connections idle for longer than the idle timeout are closed, until the pool is back to its min size : it shrinks
+ * during quiet hours, and grows again at the morning login storm.</br>
+ * A maintenance thread regularly shrinks the pool, validates the idle connections, and replaces the broken ones (after
+ * a database failover, for instance) before a handler gets them. acquire() can also validate connections which have
+ * been idle for too long.</br>
+ * Its activity is counted in ConnectionPoolMetrics. The connections held for longer than the leak threshold are reported
+ * once, with the stack trace of the code which acquired them.
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R2 sprint 1 -> R3 sprint 3: </br>
+ * 			-replaced the PriorityBlockingQueue of ComparableConnectionWrappers by a lock-free LIFO deque and a semaphore</br>
+ * 			-the pool grows from a min size up to a hard max size, and shrinks back once its connections are idle. The former
+ * 			 DB_CONNECTION_POOL_SIZE is still read as the min size, with a deprecation warning</br>
+ * 			-the properties are read, and the JDBC driver loaded, once in init()</br>
+ * 			-the connections are opened to the StorageBackend chosen in the properties : Oracle, or an embedded database</br>
+ * 			-the connections are opened in parallel on launch, and init() only waits for the startup size</br>
+ * 			-counts its activity in ConnectionPoolMetrics, and reports the connections held for too long</br>
+ * 			-caches the PreparedStatements of each connection (see prepareStatement)</br>
+ * 			-idle connections are validated in the background, and on checkout after a while, and replaced when broken
  */
 public class ConnectionPool {
 	/**
@@ -29,31 +66,107 @@ public class ConnectionPool {
 	
 	
 	/**
-	 * The structure containing the JDBC connections not yet dispensed.
-	 * In this implementation, we use a PriorityBlockingQueue. 
+	 * The JDBC connections not yet dispensed. Connections are pushed and popped at the head.
 	 */
-	private static PriorityBlockingQueue<ComparableConnectionWrapper> availableConnections = new PriorityBlockingQueue<>();
+	private static final ConcurrentLinkedDeque<PooledConnection> availableConnections = new ConcurrentLinkedDeque<>();
+	
+	/**
+	 * The size of availableConnections, which ConcurrentLinkedDeque can't give in constant time.
+	 */
+	private static final AtomicInteger availableCount = new AtomicInteger();
+	
+	/**
+	 * The connections currently dispensed, with their pool information.
+	 */
+	private static final ConcurrentHashMap<Connection, PooledConnection> acquiredConnections = new ConcurrentHashMap<>();
+	
+	/**
+	 * One permit per connection which can still be dispensed before reaching the max size.
+	 */
+	private static Semaphore permits;
+	
+	/**
+	 * Opens the connections created on launch. Once they are all opened, its threads end.
+	 */
+	private static ExecutorService warmup;
+	
+	/**
+	 * Validates the idle connections. Null if background validation is disabled.
+	 */
+	private static ScheduledExecutorService maintenance;
+	
+	/**
+	 * The time, in seconds, a validation waits for the database's answer.
+	 */
+	private static final int VALIDATION_TIMEOUT = 2;
 	
 	
 	/**
 	 * Status attribute. All methods in this implementation can throw IllegalStateExceptions.
 	 */
-	private static ConnexionPoolState state = ConnexionPoolState.initial;
+	private static volatile ConnexionPoolState state = ConnexionPoolState.initial;
 	
 	/**
-	 * The timeout of the acquire function, which will trigger the creation of a new JDBC connection to avoid starvation, should it be reached.
-	 * It is in milliseconds.
+	 * The timeout of the acquire function, when the max size is reached. It is in milliseconds.
 	 */
 	private static int timeout;
 	
+	/**
+	 * The number of connections the pool keeps open, even when they are idle.
+	 */
+	private static int minSize;
 	
+	/**
+	 * The maximum number of connections dispensed at once.
+	 */
+	private static int maxSize;
+	
+	/**
+	 * The period of the background validation, in milliseconds. 0 disables it.
+	 */
+	private static long validationPeriod;
 	
+	/**
+	 * Connections idle for longer than this, in milliseconds, are validated by acquire() before being dispensed. 0 disables it.
+	 */
+	private static long validateIdleAfter;
 	
 	/**
-	 * Must be called first.
+	 * Connections idle for longer than this, in milliseconds, are closed when the pool holds more than its min size.
+	 * 0 disables it.
+	 */
+	private static long idleTimeout;
+	
+	/**
+	 * The period of the maintenance thread, in milliseconds. 0 if there is no maintenance thread.
+	 */
+	private static long maintenancePeriod;
+	
+	/**
+	 * Connections held for longer than this, in milliseconds, are reported as leaks, along with where they were acquired.
+	 * 0 disables it.
+	 */
+	private static long leakThreshold;
+	
+	/**
+	 * The number of PreparedStatements cached per connection.
+	 */
+	private static int statementCacheSize;
+	
+	/**
+	 * The database the connections are opened to. Chosen once, in init().
+	 */
+	private static StorageBackend backend;
+	
+	
+	
+	
+	/**
+	 * Must be called first. Returns once DB_CONNECTION_POOL_STARTUP_SIZE connections are opened : the rest of the
+	 * min size is opened in the background.
 	 * @throws IllegalStateException : if ConnectionPool was already initialized, or already cleaned up.
 	 * @throws ClassNotFoundException : if the JDBC driver can't be found
-	 * @throws SQLException : if the database can't be connected to
+	 * @throws SQLException : if the database can't be connected to, or the embedded database can't be created
 	 */
 	public static synchronized void init() throws IllegalStateException, ClassNotFoundException, SQLException {
 		logger.trace("Entering ConnectionPool.init");
@@ -69,41 +182,94 @@ public class ConnectionPool {
 		//Loading properties
 		Properties prop = KappaProperties.getInstance();
 		
-		String DB_DRIVER_NAME = prop.getProperty("DB_DRIVER_NAME");
-		String DB_URL = prop.getProperty("DB_URL");
-		String DB_CONNECTION_LOGIN = prop.getProperty("DB_CONNECTION_LOGIN");
-		String DB_CONNECTION_PASSWORD = prop.getProperty("DB_CONNECTION_PASSWORD");
-		int DB_CONNECTION_POOL_SIZE = Integer.parseInt(prop.getProperty("DB_CONNECTION_POOL_SIZE"));
+		backend = StorageBackend.fromProperties(prop);
+		String minSizeProperty = prop.getProperty("DB_CONNECTION_POOL_MIN_SIZE");
+		if(minSizeProperty == null) {
+			// Properties files older than R3 sprint 3 have a fixed size
+			minSizeProperty = prop.getProperty("DB_CONNECTION_POOL_SIZE");
+			logger.warn("DB_CONNECTION_POOL_SIZE is deprecated : it is used as DB_CONNECTION_POOL_MIN_SIZE. Please rename it.");
+		}
+		minSize = Integer.parseInt(minSizeProperty);
+		maxSize = Math.max(minSize, Integer.parseInt(prop.getProperty("DB_CONNECTION_POOL_MAX_SIZE", String.valueOf(2 * minSize))));
 		timeout = Integer.parseInt(prop.getProperty("DB_CONNECTION_POOL_ACQUIRE_TIMEOUT"));
+		validationPeriod = Long.parseLong(prop.getProperty("DB_CONNECTION_POOL_VALIDATION_PERIOD", "30000"));
+		validateIdleAfter = Long.parseLong(prop.getProperty("DB_CONNECTION_POOL_VALIDATE_IDLE_AFTER", "10000"));
+		idleTimeout = Long.parseLong(prop.getProperty("DB_CONNECTION_POOL_IDLE_TIMEOUT", "600000"));
+		leakThreshold = Long.parseLong(prop.getProperty("DB_CONNECTION_POOL_LEAK_THRESHOLD", "60000"));
+		statementCacheSize = Integer.parseInt(prop.getProperty("DB_STATEMENT_CACHE_SIZE", "20"));
+		// Checking 4 times per idle timeout or leak threshold : an idle connection or a leak is handled at most 25% late
+		maintenancePeriod = validationPeriod;
+		for(long threshold : new long[] {idleTimeout, leakThreshold}) {
+			if(threshold > 0) {
+				long period = Math.max(1000, threshold / 4);
+				maintenancePeriod = maintenancePeriod > 0 ? Math.min(maintenancePeriod, period) : period;
+			}
+		}
+		ConnectionPoolMetrics.reset();
+		permits = new Semaphore(maxSize, true);
 		
-		//Creating JDBC connections
-		try {
-			Class.forName(DB_DRIVER_NAME);
-			
-			for(int i = 0 ; i < DB_CONNECTION_POOL_SIZE ; i++) {
-				Connection newCo = DriverManager.getConnection(DB_URL, DB_CONNECTION_LOGIN, DB_CONNECTION_PASSWORD);
-				newCo.setAutoCommit(false);
-				availableConnections.add(new ComparableConnectionWrapper(newCo));
+		int startupSize = Math.min(minSize, Integer.parseInt(prop.getProperty("DB_CONNECTION_POOL_STARTUP_SIZE", String.valueOf(minSize))));
+		int warmupThreads = Integer.parseInt(prop.getProperty("DB_CONNECTION_POOL_WARMUP_THREADS", "4"));
+		
+		//Creating JDBC connections, in parallel
+		warmup = Executors.newFixedThreadPool(Math.max(1, Math.min(warmupThreads, minSize)), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ConnectionPoolWarmup");
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+		try {
+			Class.forName(backend.getDriverName());
+			backend.initialize();
+			openStartupConnections(startupSize);
 		} catch (ClassNotFoundException e) {
+			warmup.shutdown();
 			logger.trace("Exiting ConnectionPool.init with a ClassNotFoundException");
 			throw e;
 		} catch (SQLException e) {
+			warmup.shutdown();
+			closeAvailableConnections(); // The connections already opened would never be closed otherwise
 			logger.trace("Exiting ConnectionPool.init with a SQLException");
 			throw e;
 		}
 		
 		state = ConnexionPoolState.ready;
+		
+		// The server can already work with the startup connections : the others are opened in the background
+		for(int i = startupSize ; i < minSize ; i++) {
+			warmup.execute(new Runnable() {
+				public void run() {
+					openBackgroundConnection();
+				}
+			});
+		}
+		warmup.shutdown(); // Its threads end once the connections are opened
+		
+		if(maintenancePeriod > 0) {
+			maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ConnectionPoolMaintenance");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					maintain();
+				}
+			}, maintenancePeriod, maintenancePeriod, TimeUnit.MILLISECONDS);
+		}
 		logger.trace("Exiting ConnectionPool.init");
 	}
 	
 	
 	/**
-	 * Call this method before shutting down the server. 
-	 * In this implementations, all connections must be released before cleanup. See the Server activity diagram for details.
+	 * Call this method before shutting down the server.
+	 * In this implementations, all connections should be released before cleanup. See the Server activity diagram for details.
 	 * As a security measure, all connections will receive a rollback before being closed.
 	 * @throws IllegalStateException : if ConnectionPool was already cleaned up.
-	 * @version R2 sprint 1 - 16/03/2016
+	 * @version R3 sprint 3
 	 */
 	public static synchronized void cleanup() {
 		logger.trace("Entering ConnectionPool.cleanup");
@@ -114,17 +280,22 @@ public class ConnectionPool {
 		} else
 			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
 			state = ConnexionPoolState.initial;
-
-		// Actual cleanup. The try block is inside the for cycle so that in case an exception is raised, the rest of the cleanup can still occur.
-		for(ComparableConnectionWrapper wrapper : availableConnections) {
+		
+		warmup.shutdownNow();
+		if(maintenance != null) {
+			// Waiting for a running validation, so that it doesn't put a connection back after the others are closed
+			maintenance.shutdownNow();
 			try {
-					Connection co = wrapper.getConnection();
-					co.rollback();
-					co.close();
-			} catch (SQLException e) {
-				logger.warn("SQLException raised while closing a JDBC connection. Cleanup continues.", e);
+				maintenance.awaitTermination(VALIDATION_TIMEOUT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				logger.warn("Caught an InterruptedException during ConnectionPool cleanup", e);
 			}
+			maintenance = null;
+		}
+		if(!acquiredConnections.isEmpty()) {
+			logger.warn(acquiredConnections.size() + " connections were not released before cleanup. They will be closed when released.");
 		}
+		closeAvailableConnections();
 		
 		logger.trace("Exiting ConnectionPool.cleanup");
 	}
@@ -135,14 +306,15 @@ public class ConnectionPool {
 	
 	/**
 	 * Retrieves and removes an already open and well configurated JDBC connection from the pool. </br>
-	 * This implementation of the acquire() method has a timeout defined in the server properties. 
-	 * In case that timeout is reached, a new JDBC connection is opened to avoid starvation.
+	 * If every pooled connection is in use, a new connection is opened, unless the max size is reached :
+	 * in that case, this method waits for a connection to be released, for at most the timeout defined in the server properties.</br>
+	 * A connection idle for longer than DB_CONNECTION_POOL_VALIDATE_IDLE_AFTER is validated first, and replaced if it is broken.
 	 * @return a Connection which must be released after exactly one transaction has been performed.
 	 * @throws IllegalStateException : if the Connection Pool is not yet initialized, or already cleaned up
-	 * @throws SQLException : if a new JDBC connection can't be created (in example, if a database access error occurs)
-	 * @throws ClassNotFoundException : shouldn't happen usually.
+	 * @throws SQLException : if the max size is still reached after the timeout,
+	 * or if a new JDBC connection can't be created (in example, if a database access error occurs)
 	 */
-	public static Connection acquire() throws IllegalStateException, SQLException, ClassNotFoundException {
+	public static Connection acquire() throws IllegalStateException, SQLException {
 		logger.trace("Entering ConnectionPool.acquire");
 		
 		//State management
@@ -154,47 +326,304 @@ public class ConnectionPool {
 			break;
 		}
 		
-		// Trying to take a connection from the blocking queue until timeout is reached.
-		ComparableConnectionWrapper wrapper = null;
+		// Waiting for a permit if the max size is reached
+		long start = System.nanoTime();
+		boolean acquired = false;
 		try {
-			wrapper = availableConnections.poll(timeout, TimeUnit.MILLISECONDS); // Returns null if timeout is reached.
+			acquired = permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
-			// Do nothing
+			Thread.currentThread().interrupt();
+		}
+		if(!acquired) {
+			ConnectionPoolMetrics.timedOut();
+			logger.trace("Exiting ConnectionPool.acquire with a SQLException");
+			throw new SQLException("ConnectionPool acquire - " + maxSize + " connections already in use after " + timeout + " ms");
 		}
 		
-		if(wrapper != null) {
+		try {
+			PooledConnection pooled;
+			while((pooled = availableConnections.poll()) != null) {
+				availableCount.decrementAndGet();
+				if(validateIdleAfter <= 0 || pooled.getLastChecked() >= System.currentTimeMillis() - validateIdleAfter || isValid(pooled)) {
+					break;
+				}
+				logger.warn("ConnectionPool.acquire : an idle connection was broken. It is closed.");
+				ConnectionPoolMetrics.closedBroken();
+				closeConnection(pooled.getConnection());
+			}
+			if(pooled == null) {
+				logger.trace("ConnectionPool.acquire : every pooled connection is in use, opening a new connection.");
+				pooled = new PooledConnection(openConnection());
+				ConnectionPoolMetrics.openedOnDemand();
+			}
+			// Creating the stack trace is not free : it is only done when leaks are looked for
+			pooled.acquired(leakThreshold > 0 ? new Throwable("Connection acquired here") : null);
+			acquiredConnections.put(pooled.getConnection(), pooled);
+			ConnectionPoolMetrics.acquired(System.nanoTime() - start);
+			
 			logger.trace("Exiting ConnectionPool.acquire");
-			return wrapper.getConnection();
+			return pooled.getConnection();
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			logger.trace("Exiting ConnectionPool.acquire with a " + e.getClass().getName());
+			throw e;
 		}
+	}
+	
+	/**
+	 * Inserts the JDBC connection you were given by the acquire() method back into the connection pool.</br>
+	 * The connection is closed instead if the pool was cleaned up.
+	 * @param c : the JDBC connection you were given by the acquire() method.
+	 */
+	public static void release(Connection c) {
+		logger.trace("Entering ConnectrionPool.release");
 		
-		logger.trace("ConnectionPool.acquire : timeout reached, creating a new connection.");
-		/* Creating a new JDBC connection to avoid starvation */
+		PooledConnection pooled = acquiredConnections.remove(c);
+		if(pooled == null) {
+			logger.warn("ConnectionPool.release : this connection was not acquired from the pool, or was already released.");
+			logger.trace("Exiting ConnectionPool.release");
+			return;
+		}
+		pooled.closeUncachedStatements();
 		
-		//Loading properties
-		Properties prop = KappaProperties.getInstance();
+		if(state == ConnexionPoolState.ready) {
+			pooled.touch();
+			availableCount.incrementAndGet();
+			availableConnections.push(pooled);
+		} else {
+			closeConnection(c);
+		}
+		permits.release();
 		
-		String DB_DRIVER_NAME = prop.getProperty("DB_DRIVER_NAME");
-		String DB_URL = prop.getProperty("DB_URL");
-		String DB_CONNECTION_LOGIN = prop.getProperty("DB_CONNECTION_LOGIN");
-		String DB_CONNECTION_PASSWORD = prop.getProperty("DB_CONNECTION_PASSWORD");
+		logger.trace("Exiting ConnectionPool.release");
+	}
+	
+	
+	
+	/**
+	 * Gives a PreparedStatement of an acquired connection. Each connection caches its PreparedStatements by SQL text :
+	 * a query is only prepared, and parsed by the database, the first time a connection runs it.</br>
+	 * The statement must not be closed by the caller, only its ResultSets. It stays open until it is evicted from the
+	 * cache, or its connection is closed. If DB_STATEMENT_CACHE_SIZE is 0, nothing is cached : the statement is closed
+	 * when its connection is released.
+	 * @param c : a connection acquired from the pool, and not yet released.
+	 * @param sql : the query, with bind variables ('?') instead of literal values.
+	 * @return the statement. Its parameters must all be set before it is executed.
+	 * @throws IllegalStateException : if c was not acquired from the pool, or was already released.
+	 * @throws SQLException : if the statement can't be prepared.
+	 */
+	public static PreparedStatement prepareStatement(Connection c, String sql) throws IllegalStateException, SQLException {
+		PooledConnection pooled = acquiredConnections.get(c);
+		if(pooled == null) {
+			throw new IllegalStateException("ConnectionPool prepareStatement - this connection was not acquired from the pool, or was already released");
+		}
+		return pooled.prepareStatement(sql, statementCacheSize);
+	}
+	
+	/**
+	 * @return the number of connections currently dispensed.
+	 */
+	public static int getActiveCount() {
+		return acquiredConnections.size();
+	}
+	
+	/**
+	 * @return the number of idle connections in the pool.
+	 */
+	public static int getIdleCount() {
+		return availableCount.get();
+	}
+	
+	/**
+	 * @return the number of open connections beyond the min size : those the pool opened under load.
+	 */
+	public static int getOverflowCount() {
+		return Math.max(0, getActiveCount() + getIdleCount() - minSize);
+	}
+	
+	/**
+	 * Opens connections in parallel, on the warmup threads, and waits for them.
+	 * @param count : the number of connections to open.
+	 * @throws SQLException : if one of them can't be opened. The others are still put in the pool.
+	 */
+	private static void openStartupConnections(int count) throws SQLException {
+		List<Future<Connection>> connections = new ArrayList<>(count);
+		for(int i = 0 ; i < count ; i++) {
+			connections.add(warmup.submit(new Callable<Connection>() {
+				public Connection call() throws SQLException {
+					return openConnection();
+				}
+			}));
+		}
 		
-		//Creating a new JDBC connection
-		Class.forName(DB_DRIVER_NAME);
-		Connection newCo = DriverManager.getConnection(DB_URL, DB_CONNECTION_LOGIN, DB_CONNECTION_PASSWORD);
-		newCo.setAutoCommit(false);
+		// Waiting for every connection, even after a failure, so that none of them is left open outside of the pool
+		SQLException failure = null;
+		boolean interrupted = false;
+		for(Future<Connection> connection : connections) {
+			while(true) {
+				try {
+					availableConnections.push(new PooledConnection(connection.get()));
+					availableCount.incrementAndGet();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if(failure == null) {
+						failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+					}
+					break;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Opens a connection and puts it in the pool. Run by the warmup threads, once the pool is ready.
+	 * If the database can't be reached, the maintenance thread opens the connection later.
+	 */
+	private static void openBackgroundConnection() {
+		PooledConnection pooled;
+		try {
+			pooled = new PooledConnection(openConnection());
+		} catch (SQLException e) {
+			logger.warn("ConnectionPool : can't open a connection in the background.", e);
+			return;
+		}
+		availableCount.incrementAndGet();
+		availableConnections.offerLast(pooled);
+		// If cleanup closed the idle connections in the meantime, this one must be closed too
+		if(state != ConnexionPoolState.ready && availableConnections.removeFirstOccurrence(pooled)) {
+			availableCount.decrementAndGet();
+			closeConnection(pooled.getConnection());
+		}
+	}
+	
+	/**
+	 * The maintenance thread's task : closes the connections idle for longer than the idle timeout, down to the min size,
+	 * then validates the connections which have been idle since the last validation, and finally opens connections to get
+	 * back to the min size. If the database can't be reached, the next run tries again.
+	 */
+	private static void maintain() {
+		logger.trace("Entering ConnectionPool.maintain");
 		
-		logger.trace("Exiting ConnectionPool.acquire after timeout was reached.");
+		long now = System.currentTimeMillis();
+		if(idleTimeout > 0) {
+			int closed = 0;
+			// The deque is a stack : the least recently used connections are at its tail
+			Iterator<PooledConnection> it = availableConnections.descendingIterator();
+			while(it.hasNext() && availableCount.get() + acquiredConnections.size() > minSize) {
+				PooledConnection pooled = it.next();
+				if(pooled.getLastUsed() < now - idleTimeout && availableConnections.removeLastOccurrence(pooled)) {
+					availableCount.decrementAndGet();
+					closeConnection(pooled.getConnection());
+					closed++;
+				}
+			}
+			if(closed > 0) {
+				ConnectionPoolMetrics.closedIdle(closed);
+				logger.info("ConnectionPool.maintain : " + closed + " idle connections were closed.");
+			}
+		}
+		
+		int broken = 0;
+		for(PooledConnection pooled : availableConnections) {
+			// A connection used or validated recently is considered as working. The others are taken out of the deque
+			// while they are validated, so that acquire() can't dispense them in the meantime.
+			if(validationPeriod <= 0 || pooled.getLastChecked() >= now - validationPeriod
+					|| !availableConnections.removeFirstOccurrence(pooled)) {
+				continue;
+			}
+			if(isValid(pooled)) {
+				pooled.checked();
+				availableConnections.offerLast(pooled); // Still the least recently used
+			} else {
+				availableCount.decrementAndGet();
+				closeConnection(pooled.getConnection());
+				ConnectionPoolMetrics.closedBroken();
+				broken++;
+			}
+		}
+		if(broken > 0) {
+			logger.warn("ConnectionPool.maintain : " + broken + " broken idle connections were closed.");
+		}
+		
+		if(leakThreshold > 0) {
+			for(PooledConnection pooled : acquiredConnections.values()) {
+				long heldFor = now - pooled.getAcquiredAt();
+				if(heldFor > leakThreshold && pooled.reportLeak()) {
+					ConnectionPoolMetrics.leakDetected();
+					logger.warn("ConnectionPool.maintain : a connection has not been released for " + heldFor
+							+ " ms. It may have leaked.", pooled.getAcquiredBy());
+				}
+			}
+		}
+		
+		// Replacing the closed connections, without going over the min size
+		try {
+			while(state == ConnexionPoolState.ready && availableCount.get() + acquiredConnections.size() < minSize) {
+				availableCount.incrementAndGet();
+				try {
+					availableConnections.offerLast(new PooledConnection(openConnection()));
+				} catch (SQLException e) {
+					availableCount.decrementAndGet();
+					throw e;
+				}
+			}
+		} catch (SQLException e) {
+			logger.warn("ConnectionPool.maintain : can't open a connection. Retrying in " + maintenancePeriod + " ms.", e);
+		}
+		
+		logger.trace("Exiting ConnectionPool.maintain");
+	}
+	
+	/**
+	 * @return true if the connection still works. Doesn't throw : a connection which can't be validated is broken.
+	 */
+	private static boolean isValid(PooledConnection pooled) {
+		try {
+			return pooled.getConnection().isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Opens a new JDBC connection, configured for the pool.
+	 */
+	private static Connection openConnection() throws SQLException {
+		Connection newCo = backend.connect();
+		newCo.setAutoCommit(false);
 		return newCo;
 	}
 	
 	/**
-	 * Inserts the JDBC connection you were given by the acquire() method back into the connection pool.
-	 * @param c : the JDBC connection you were given by the acquire() method.
+	 * Rolls back and closes a connection. Doesn't throw : the pool can't do anything else with it.
 	 */
-	public static void release(Connection c) {
-		logger.trace("Entering ConnectrionPool.release");
-		availableConnections.offer(new ComparableConnectionWrapper(c));
-		logger.trace("Exiting ConnectionPool.release");
+	private static void closeConnection(Connection c) {
+		try {
+			c.rollback();
+			c.close();
+		} catch (SQLException e) {
+			logger.warn("SQLException raised while closing a JDBC connection.", e);
+		}
+	}
+	
+	/**
+	 * Closes every idle connection. The try block is inside closeConnection so that in case an exception is raised,
+	 * the rest of the cleanup can still occur.
+	 */
+	private static void closeAvailableConnections() {
+		PooledConnection pooled;
+		while((pooled = availableConnections.poll()) != null) {
+			availableCount.decrementAndGet();
+			closeConnection(pooled.getConnection());
+		}
 	}
 }
 
@@ -204,18 +633,50 @@ enum ConnexionPoolState {
 }
 
 /**
- * Wrapper class for Connection which implements Comparable.
- * This class is necessary for ConnectionPool, which uses a PriorityBlockingQueue, an implementation which requires comparable elements.</br>
- * This implementations compares the toString() values of the connections.
- * @version R2 sprint 1 - 16/03/2016
- * @author Kappa
- *
+ * A JDBC connection, along with the information the ConnectionPool keeps about it.
+ * @version R3 sprint 3
+ * @author Kappa-V
  */
-class ComparableConnectionWrapper implements Comparable<ComparableConnectionWrapper> {
+class PooledConnection {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(PooledConnection.class);
+	
 	private final Connection c;
 	
-	public ComparableConnectionWrapper(Connection c) {
+	/**
+	 * The PreparedStatements of the connection, by SQL text, from the least to the most recently used.
+	 * Only used by the thread which acquired the connection.
+	 */
+	private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * The statements prepared while the cache is disabled. Closed when the connection is released.
+	 */
+	private final List<PreparedStatement> uncachedStatements = new ArrayList<>();
+	
+	/**
+	 * The last time the connection was released, or opened. In milliseconds.
+	 */
+	private volatile long lastUsed;
+	
+	/**
+	 * The last time the connection was released, opened, or validated. In milliseconds.
+	 */
+	private volatile long lastChecked;
+	
+	/**
+	 * When the connection was last acquired, in milliseconds, and where, if leaks are looked for.
+	 */
+	private volatile long acquiredAt;
+	private volatile Throwable acquiredBy;
+	private final AtomicBoolean leakReported = new AtomicBoolean();
+	
+	public PooledConnection(Connection c) {
 		this.c = c;
+		this.lastUsed = System.currentTimeMillis();
+		this.lastChecked = lastUsed;
 	}
 	
 	public Connection getConnection() {
@@ -223,11 +684,81 @@ class ComparableConnectionWrapper implements Comparable<ComparableConnectionWrap
 	}
 	
 	/**
-	 * Grants the ability to compare connections.</br>
-	 * Compares the toString() values of the connections.
+	 * @see ConnectionPool#prepareStatement(Connection, String)
+	 * @param cacheSize : beyond this, the least recently used statement is closed. 0 or less : nothing is cached.
+	 */
+	public PreparedStatement prepareStatement(String sql, int cacheSize) throws SQLException {
+		if(cacheSize <= 0) {
+			PreparedStatement statement = c.prepareStatement(sql);
+			uncachedStatements.add(statement);
+			return statement;
+		}
+		
+		PreparedStatement statement = statements.get(sql);
+		if(statement == null || statement.isClosed()) {
+			statements.remove(sql);
+			// Room is made before the new statement is put : it can't be the one evicted
+			if(statements.size() >= cacheSize) {
+				Iterator<PreparedStatement> eldest = statements.values().iterator();
+				PreparedStatement evicted = eldest.next();
+				eldest.remove();
+				evicted.close();
+			}
+			statement = c.prepareStatement(sql);
+			statements.put(sql, statement);
+		}
+		return statement;
+	}
+	
+	/**
+	 * Closes the statements prepared while the cache was disabled. Called when the connection is released.
+	 */
+	public void closeUncachedStatements() {
+		for(PreparedStatement statement : uncachedStatements) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				logger.warn("SQLException raised while closing a PreparedStatement.", e);
+			}
+		}
+		uncachedStatements.clear();
+	}
+	
+	public long getLastUsed() {
+		return lastUsed;
+	}
+	
+	public long getLastChecked() {
+		return lastChecked;
+	}
+	
+	public void touch() {
+		lastUsed = System.currentTimeMillis();
+		lastChecked = lastUsed;
+	}
+	
+	public void checked() {
+		lastChecked = System.currentTimeMillis();
+	}
+	
+	public void acquired(Throwable acquiredBy) {
+		this.acquiredAt = System.currentTimeMillis();
+		this.acquiredBy = acquiredBy;
+		leakReported.set(false);
+	}
+	
+	public long getAcquiredAt() {
+		return acquiredAt;
+	}
+	
+	public Throwable getAcquiredBy() {
+		return acquiredBy;
+	}
+	
+	/**
+	 * @return true the first time it is called for an acquisition : a leak is only reported once.
 	 */
-	@Override
-	public int compareTo(ComparableConnectionWrapper comparableConnection) {
-		return this.c.toString().compareTo(comparableConnection.c.toString());
+	public boolean reportLeak() {
+		return leakReported.compareAndSet(false, true);
 	}
-}
\ No newline at end of file
+}
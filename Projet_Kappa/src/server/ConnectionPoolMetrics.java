@@ -0,0 +1,128 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.LatencyHistogram;
+
+/**
+ * Counts what happens in the ConnectionPool, so that its sizing can be checked while the server runs.</br>
+ * The counters are updated by the ConnectionPool, and reset when it is initialized. getReport() sums them up, along with
+ * the pool's gauges : it can be printed by typing "stats" in the server's console.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class ConnectionPoolMetrics {
+	/**
+	 * Private empty constructor : makes it impossible to instantiate ConnectionPoolMetrics
+	 */
+	private ConnectionPoolMetrics() {}
+	
+	/**
+	 * The time acquire() took, waiting for a permit and validating or opening the connection included.
+	 */
+	private static volatile LatencyHistogram acquireLatency = new LatencyHistogram();
+	
+	/**
+	 * The acquire() calls which failed because the max size was still reached after the timeout.
+	 */
+	private static final AtomicLong timeouts = new AtomicLong();
+	
+	/**
+	 * The connections opened by acquire() because every idle connection was in use.
+	 */
+	private static final AtomicLong openedOnDemand = new AtomicLong();
+	
+	/**
+	 * The idle connections closed because they were broken.
+	 */
+	private static final AtomicLong broken = new AtomicLong();
+	
+	/**
+	 * The idle connections closed because the pool was shrinking.
+	 */
+	private static final AtomicLong shrunk = new AtomicLong();
+	
+	/**
+	 * The connections held for longer than the leak threshold.
+	 */
+	private static final AtomicLong leaks = new AtomicLong();
+	
+	
+	
+	
+	/**
+	 * Called by ConnectionPool.init.
+	 */
+	static void reset() {
+		acquireLatency = new LatencyHistogram();
+		timeouts.set(0);
+		openedOnDemand.set(0);
+		broken.set(0);
+		shrunk.set(0);
+		leaks.set(0);
+	}
+	
+	static void acquired(long latency) {
+		acquireLatency.record(latency);
+	}
+	
+	static void timedOut() {
+		timeouts.incrementAndGet();
+	}
+	
+	static void openedOnDemand() {
+		openedOnDemand.incrementAndGet();
+	}
+	
+	static void closedBroken() {
+		broken.incrementAndGet();
+	}
+	
+	static void closedIdle(int count) {
+		shrunk.addAndGet(count);
+	}
+	
+	static void leakDetected() {
+		leaks.incrementAndGet();
+	}
+	
+	/**
+	 * @return the acquire() latencies. Percentiles are in microseconds.
+	 */
+	public static LatencyHistogram getAcquireLatency() {
+		return acquireLatency;
+	}
+	
+	public static long getTimeouts() {
+		return timeouts.get();
+	}
+	
+	public static long getOpenedOnDemand() {
+		return openedOnDemand.get();
+	}
+	
+	public static long getBroken() {
+		return broken.get();
+	}
+	
+	public static long getShrunk() {
+		return shrunk.get();
+	}
+	
+	public static long getLeaks() {
+		return leaks.get();
+	}
+	
+	/**
+	 * @return a human-readable summary of the metrics and of the pool's gauges.
+	 */
+	public static String getReport() {
+		LatencyHistogram latency = acquireLatency;
+		return "Connection pool : " + ConnectionPool.getActiveCount() + " active, " + ConnectionPool.getIdleCount() + " idle, "
+				+ ConnectionPool.getOverflowCount() + " above the min size\n"
+				+ "acquire : " + latency.getCount() + " calls, p50 " + latency.getPercentile(50) + " us, p90 "
+				+ latency.getPercentile(90) + " us, p99 " + latency.getPercentile(99) + " us, max " + latency.getMax() + " us\n"
+				+ timeouts.get() + " timeouts, " + openedOnDemand.get() + " connections opened on demand, "
+				+ shrunk.get() + " closed while shrinking, " + broken.get() + " broken, " + leaks.get() + " leaks detected";
+	}
+}
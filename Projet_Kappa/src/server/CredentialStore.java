@@ -0,0 +1,359 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An in-memory copy of the USERS table, which answers the successful AUTH queries without the database.</br>
+ * The passwords are not kept : each login is stored with a random salt, the SHA-256 hash of the salt and password, and its
+ * authorization level. A password is checked by hashing it with the same salt, and comparing the hashes in constant time.</br>
+ * The store is only trusted when it accepts a login : an unknown login, or a password it refuses, is checked against the
+ * database, so that new users and new passwords work right away.</br>
+ * The store is loaded in the background on launch, and refreshed every CREDENTIAL_STORE_REFRESH_PERIOD : only the users
+ * whose password or authorization level changed are hashed again. An old password, a deleted user, or a lowered
+ * authorization level, is thus accepted at most this long after it changed : this is the price of the saved round trips.
+ * Call invalidate() when a user changes, so that its AUTH queries go to the database right away.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class CredentialStore {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(CredentialStore.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate CredentialStore
+	 */
+	private CredentialStore() {}
+	
+	/**
+	 * Every user.
+	 */
+	private static final String LOAD_SQL = "SELECT \"Login\", \"Password\", \"Authorization_Level\" FROM USERS";
+	
+	/**
+	 * The stored credentials, by login.
+	 */
+	private static final ConcurrentHashMap<String, StoredCredential> credentials = new ConcurrentHashMap<>();
+	
+	/**
+	 * Refreshes the store in the background.
+	 */
+	private static ScheduledExecutorService refresher;
+	
+	/**
+	 * Only one refresh at a time.
+	 */
+	private static final Object refreshLock = new Object();
+	
+	/**
+	 * Incremented by each invalidation. A refresh which loaded the users before an invalidation is dropped, since it could
+	 * store the invalidated credential again.
+	 */
+	private static final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * True once the store was loaded.
+	 */
+	private static volatile boolean loaded = false;
+	
+	/**
+	 * Status attribute.
+	 */
+	private static volatile CredentialStoreState state = CredentialStoreState.initial;
+	
+	
+	
+	
+	/**
+	 * Must be called once the ConnectionPool is ready. Returns right away : the store is loaded in the background.
+	 * @param refreshPeriod : the time, in milliseconds, between two refreshes.
+	 * @throws IllegalStateException : if CredentialStore was already initialized.
+	 */
+	public static synchronized void init(long refreshPeriod) throws IllegalStateException {
+		logger.trace("Entering CredentialStore.init");
+		
+		if(state == CredentialStoreState.ready) {
+			logger.trace("Exiting CredentialStore.init with an IllegalStateException");
+			throw new IllegalStateException("CredentialStore init - already initialized");
+		}
+		
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CredentialStoreRefresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		state = CredentialStoreState.ready;
+		
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch (SQLException | IllegalStateException e) {
+					logger.warn("CredentialStore : can't refresh the credentials. Retrying later.", e);
+				}
+			}
+		}, 0, Math.max(1000, refreshPeriod), TimeUnit.MILLISECONDS);
+		
+		logger.trace("Exiting CredentialStore.init");
+	}
+	
+	/**
+	 * Stops the refreshes, and empties the store.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering CredentialStore.cleanup");
+		
+		if(state == CredentialStoreState.initial) {
+			logger.trace("Exiting CredentialStore.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = CredentialStoreState.initial;
+		
+		refresher.shutdownNow();
+		refresher = null;
+		synchronized(refreshLock) {
+			loaded = false;
+			credentials.clear();
+		}
+		
+		logger.trace("Exiting CredentialStore.cleanup");
+	}
+	
+	/**
+	 * Reloads the users from the database, and hashes again those whose password or authorization level changed.
+	 * AUTH queries go on during the refresh.
+	 * @throws IllegalStateException : if the ConnectionPool is not ready.
+	 * @throws SQLException : if the users can't be loaded. The store is left as it was.
+	 */
+	public static void refresh() throws IllegalStateException, SQLException {
+		logger.trace("Entering CredentialStore.refresh");
+		
+		synchronized(refreshLock) {
+			long loadGeneration = generation.get();
+			Map<String, UserRow> current = load();
+			if(state != CredentialStoreState.ready) {
+				logger.trace("Exiting CredentialStore.refresh");
+				return; // Cleaned up in the meantime
+			}
+			
+			synchronized(credentials) {
+				// Checked under the lock : an invalidation can't happen between the check and the puts
+				if(generation.get() != loadGeneration) {
+					logger.info("CredentialStore : invalidated during a refresh. The users will be loaded again by the next one.");
+					logger.trace("Exiting CredentialStore.refresh");
+					return;
+				}
+				
+				int changed = 0;
+				for(UserRow user : current.values()) {
+					StoredCredential previous = credentials.get(user.login);
+					if(previous == null || previous.authorizationLevel != user.authorizationLevel || !previous.isPassword(user.password)) {
+						credentials.put(user.login, new StoredCredential(user.password, user.authorizationLevel));
+						changed++;
+					}
+				}
+				for(String login : credentials.keySet()) {
+					if(!current.containsKey(login)) {
+						credentials.remove(login);
+						changed++;
+					}
+				}
+				
+				if(changed > 0 || !loaded) {
+					logger.info("CredentialStore : " + credentials.size() + " users stored, " + changed + " changed.");
+				}
+				loaded = true;
+			}
+		}
+		
+		logger.trace("Exiting CredentialStore.refresh");
+	}
+	
+	/**
+	 * Removes a user from the store : its AUTH queries go to the database until the next refresh. To be called when its
+	 * password or authorization level changes, or when it is deleted.
+	 * @param login : the login of the user.
+	 */
+	public static void invalidate(String login) {
+		if(state != CredentialStoreState.ready || login == null) {
+			return;
+		}
+		synchronized(credentials) {
+			generation.incrementAndGet();
+			credentials.remove(login);
+		}
+		logger.info("CredentialStore : " + login + " invalidated.");
+	}
+	
+	/**
+	 * Empties the store : every AUTH query goes to the database until the next refresh, which is started right away.
+	 * To be called when several users changed, or when it is unknown which ones did.
+	 */
+	public static void invalidateAll() {
+		if(state != CredentialStoreState.ready) {
+			return;
+		}
+		synchronized(credentials) {
+			generation.incrementAndGet();
+			loaded = false;
+			credentials.clear();
+		}
+		logger.info("CredentialStore : every user invalidated.");
+		
+		ScheduledExecutorService executor = refresher;
+		if(executor != null) {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							refresh();
+						} catch (SQLException | IllegalStateException e) {
+							logger.warn("CredentialStore : can't reload the credentials. Retrying later.", e);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				// Rejected : cleaned up in the meantime
+			}
+		}
+	}
+	
+	/**
+	 * @param login : the login of an AUTH query. Matched exactly.
+	 * @return the credential of this login. null if there is no such user, or if the store is not loaded :
+	 * the database must be queried instead.
+	 */
+	static StoredCredential lookup(String login) {
+		if(!loaded || login == null) {
+			return null;
+		}
+		return credentials.get(login);
+	}
+	
+	/**
+	 * @return the number of stored users.
+	 */
+	public static int size() {
+		return credentials.size();
+	}
+	
+	/**
+	 * Loads every user. The passwords only live in the returned map, until they are hashed.
+	 */
+	private static Map<String, UserRow> load() throws IllegalStateException, SQLException {
+		Map<String, UserRow> users = new HashMap<>();
+		Connection databaseConnection = ConnectionPool.acquire();
+		try {
+			PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, LOAD_SQL);
+			statement.setFetchSize(1000);
+			ResultSet results = statement.executeQuery();
+			try {
+				while(results.next()) {
+					UserRow user = new UserRow(results.getString(1), results.getString(2), results.getInt(3));
+					users.put(user.login, user);
+				}
+			} finally {
+				results.close();
+			}
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			ConnectionPool.release(databaseConnection);
+		}
+		return users;
+	}
+	
+	/**
+	 * A row of the USERS table, as loaded by a refresh.
+	 */
+	private static class UserRow {
+		final String login;
+		final String password;
+		final int authorizationLevel;
+		
+		UserRow(String login, String password, int authorizationLevel) {
+			this.login = login;
+			this.password = password;
+			this.authorizationLevel = authorizationLevel;
+		}
+	}
+	
+	/**
+	 * The credential of a user : a salted hash of its password, and its authorization level.
+	 * Immutable : a refresh replaces the credential of a user which changed.
+	 */
+	static class StoredCredential {
+		private static final SecureRandom random = new SecureRandom();
+		
+		private final byte[] salt;
+		/**
+		 * null if the user has no password : no password matches it, like in the database.
+		 */
+		private final byte[] hash;
+		final int authorizationLevel;
+		
+		StoredCredential(String password, int authorizationLevel) {
+			this.salt = new byte[16];
+			random.nextBytes(salt);
+			this.hash = password == null ? null : hash(salt, password);
+			this.authorizationLevel = authorizationLevel;
+		}
+		
+		/**
+		 * @param password : the password of an AUTH query.
+		 * @return true if it is the user's password. The comparison takes the same time whichever byte differs.
+		 */
+		boolean verify(String password) {
+			if(password == null) {
+				return false;
+			}
+			// Hashed even when there is nothing to compare it to : a wrong password takes as long to check either way
+			byte[] candidate = hash(salt, password);
+			return hash != null && MessageDigest.isEqual(hash, candidate);
+		}
+		
+		/**
+		 * Used by refreshes : unlike verify, a user without password is still without password.
+		 * @param password : the user's password in the database.
+		 * @return true if the credential is still up to date.
+		 */
+		boolean isPassword(String password) {
+			return password == null ? hash == null : verify(password);
+		}
+		
+		private static byte[] hash(byte[] salt, String password) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(salt);
+				return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 is not supported by this JVM", e); // Every JVM must support it
+			}
+		}
+	}
+}
+
+enum CredentialStoreState {
+	initial,
+	ready
+}
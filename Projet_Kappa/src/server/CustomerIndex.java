@@ -0,0 +1,539 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import model.response.GetAccountsServerResponse.Account;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An in-memory index of the customers' names, and of their accounts, which answers getAccounts searches without the database.</br>
+ * The names are indexed by trigram : a search only checks the customers whose names contain every trigram of its pattern,
+ * instead of scanning the CUSTOMERS table. The candidates are then matched against the pattern with the semantics of
+ * Oracle's LIKE ('%' and '_' wildcards, case-sensitive, an empty pattern matches nothing).</br>
+ * The index is loaded in the background on launch, and refreshed every CUSTOMER_INDEX_REFRESH_PERIOD : only the customers
+ * which changed since the last refresh are re-indexed. Until it is loaded, search() returns null and the database is queried.
+ * Call refresh() to take a change into account right away.</br>
+ * The index also knows the customers of each advisor : myCustomers() gives those of a user, for its ClientState to hold.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class CustomerIndex {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(CustomerIndex.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate CustomerIndex
+	 */
+	private CustomerIndex() {}
+	
+	/**
+	 * Every customer having an account, and its accounts.
+	 */
+	private static final String LOAD_SQL = "SELECT C.Customer_Id, C.First_Name, C.Last_Name, A.Account_Id, A.Account_Num, C.Advisor_Id "
+			+ "FROM CUSTOMERS C INNER JOIN ACCOUNTS A ON A.Customer_Id=C.Customer_Id";
+	
+	/**
+	 * The employees who have a login : the advisors, among others.
+	 */
+	private static final String EMPLOYEES_SQL = "SELECT User_Login, Employee_Id FROM EMPLOYEES WHERE User_Login IS NOT NULL";
+	
+	/**
+	 * The indexed customers, by id.
+	 */
+	private static final ConcurrentHashMap<String, IndexedCustomer> customers = new ConcurrentHashMap<>();
+	
+	/**
+	 * The ids of the customers whose first name, or last name, contains each trigram.
+	 */
+	private static final TrigramIndex firstNames = new TrigramIndex();
+	private static final TrigramIndex lastNames = new TrigramIndex();
+	
+	/**
+	 * The employee ids of each login. Replaced as a whole by the refreshes which change it.
+	 */
+	private static volatile Map<String, Set<String>> employeeIds = Collections.emptyMap();
+	
+	/**
+	 * Incremented when a refresh changes the index, and by cleanup : a MyCustomers of an older version may be out of date.
+	 * Only written under the refreshLock.
+	 */
+	private static volatile long version = 0;
+	
+	/**
+	 * Sorts the accounts of a search by id, like the database does.
+	 */
+	static final Comparator<Account> BY_ACCOUNT_ID = new Comparator<Account>() {
+		public int compare(Account a, Account b) {
+			return a.getAccount_id().compareTo(b.getAccount_id());
+		}
+	};
+	
+	/**
+	 * Refreshes the index in the background.
+	 */
+	private static ScheduledExecutorService refresher;
+	
+	/**
+	 * Only one refresh at a time.
+	 */
+	private static final Object refreshLock = new Object();
+	
+	/**
+	 * True once the index was loaded.
+	 */
+	private static volatile boolean loaded = false;
+	
+	/**
+	 * Status attribute.
+	 */
+	private static volatile CustomerIndexState state = CustomerIndexState.initial;
+	
+	
+	
+	
+	/**
+	 * Must be called once the ConnectionPool is ready. Returns right away : the index is loaded in the background.
+	 * @param refreshPeriod : the time, in milliseconds, between two refreshes.
+	 * @throws IllegalStateException : if CustomerIndex was already initialized.
+	 */
+	public static synchronized void init(long refreshPeriod) throws IllegalStateException {
+		logger.trace("Entering CustomerIndex.init");
+		
+		if(state == CustomerIndexState.ready) {
+			logger.trace("Exiting CustomerIndex.init with an IllegalStateException");
+			throw new IllegalStateException("CustomerIndex init - already initialized");
+		}
+		
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CustomerIndexRefresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		state = CustomerIndexState.ready;
+		
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch (SQLException | IllegalStateException e) {
+					logger.warn("CustomerIndex : can't refresh the index. Retrying later.", e);
+				}
+			}
+		}, 0, Math.max(1000, refreshPeriod), TimeUnit.MILLISECONDS);
+		
+		logger.trace("Exiting CustomerIndex.init");
+	}
+	
+	/**
+	 * Stops the refreshes, and empties the index.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering CustomerIndex.cleanup");
+		
+		if(state == CustomerIndexState.initial) {
+			logger.trace("Exiting CustomerIndex.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = CustomerIndexState.initial;
+		
+		refresher.shutdownNow();
+		refresher = null;
+		synchronized(refreshLock) {
+			loaded = false;
+			customers.clear();
+			firstNames.clear();
+			lastNames.clear();
+			employeeIds = Collections.emptyMap();
+			version++;
+		}
+		
+		logger.trace("Exiting CustomerIndex.cleanup");
+	}
+	
+	/**
+	 * Reloads the customers and their accounts from the database, and re-indexes those which changed.
+	 * Searches go on during the refresh.
+	 * @throws IllegalStateException : if the ConnectionPool is not ready.
+	 * @throws SQLException : if the customers can't be loaded. The index is left as it was.
+	 */
+	public static void refresh() throws IllegalStateException, SQLException {
+		logger.trace("Entering CustomerIndex.refresh");
+		
+		synchronized(refreshLock) {
+			Map<String, IndexedCustomer> current = new HashMap<>();
+			Map<String, Set<String>> currentEmployeeIds = new HashMap<>();
+			load(current, currentEmployeeIds);
+			if(state != CustomerIndexState.ready) {
+				logger.trace("Exiting CustomerIndex.refresh");
+				return; // Cleaned up in the meantime
+			}
+			
+			int changed = 0;
+			for(IndexedCustomer customer : current.values()) {
+				IndexedCustomer previous = customers.get(customer.id);
+				if(previous == null || !previous.sameAs(customer)) {
+					// A search running meanwhile may miss a renamed customer : the next one won't
+					firstNames.replace(customer.id, previous == null ? null : previous.firstName, customer.firstName);
+					lastNames.replace(customer.id, previous == null ? null : previous.lastName, customer.lastName);
+					customers.put(customer.id, customer);
+					changed++;
+				}
+			}
+			for(IndexedCustomer previous : customers.values()) {
+				if(!current.containsKey(previous.id)) {
+					customers.remove(previous.id);
+					firstNames.replace(previous.id, previous.firstName, null);
+					lastNames.replace(previous.id, previous.lastName, null);
+					changed++;
+				}
+			}
+			
+			if(changed > 0 || !loaded) {
+				logger.info("CustomerIndex : " + customers.size() + " customers indexed, " + changed + " changed.");
+			}
+			if(!currentEmployeeIds.equals(employeeIds)) {
+				employeeIds = currentEmployeeIds;
+				changed++;
+			}
+			if(changed > 0) {
+				version++; // The MyCustomers held by the ClientStates are rebuilt when they are next used
+			}
+			loaded = true;
+		}
+		
+		logger.trace("Exiting CustomerIndex.refresh");
+	}
+	
+	/**
+	 * Searches for the accounts of the customers whose names match LIKE patterns.
+	 * @param firstName : the pattern of the first name. null to match any first name.
+	 * @param lastName : the pattern of the last name. null to match any last name.
+	 * @return the matching accounts, sorted by id. null if the index is not loaded : the database must be queried instead.
+	 */
+	public static List<Account> search(String firstName, String lastName) {
+		if(!loaded) {
+			return null;
+		}
+		
+		// Only the customers having every trigram of both patterns can match : the smallest set of candidates is checked
+		Collection<String> candidates = firstNames.candidates(firstName);
+		Collection<String> lastNameCandidates = lastNames.candidates(lastName);
+		if(candidates == null || (lastNameCandidates != null && lastNameCandidates.size() < candidates.size())) {
+			candidates = lastNameCandidates;
+		}
+		if(candidates == null) {
+			candidates = customers.keySet();
+		}
+		
+		Pattern firstNamePattern = firstName == null ? null : like(firstName);
+		Pattern lastNamePattern = lastName == null ? null : like(lastName);
+		List<Account> accounts = new ArrayList<>();
+		for(String id : candidates) {
+			IndexedCustomer customer = customers.get(id);
+			if(customer != null && matches(firstNamePattern, customer.firstName) && matches(lastNamePattern, customer.lastName)) {
+				accounts.addAll(customer.accounts);
+			}
+		}
+		Collections.sort(accounts, BY_ACCOUNT_ID);
+		return accounts;
+	}
+	
+	/**
+	 * Gathers the customers of an advisor, and their accounts.
+	 * @param login : the advisor's login. A user who isn't an employee has no customers.
+	 * @return the customers whose advisor is one of the employees of this login, as of the current version of the index.
+	 * null if the index is not loaded : the database must be queried instead.
+	 */
+	static MyCustomers myCustomers(String login) {
+		long currentVersion = version; // Read first : if a refresh happens meanwhile, the result is already out of date
+		if(!loaded) {
+			return null;
+		}
+		Set<String> advisorIds = login == null ? null : employeeIds.get(login);
+		List<IndexedCustomer> mine = new ArrayList<>();
+		if(advisorIds != null) {
+			for(IndexedCustomer customer : customers.values()) {
+				if(customer.advisorId != null && advisorIds.contains(customer.advisorId)) {
+					mine.add(customer);
+				}
+			}
+		}
+		return new MyCustomers(currentVersion, mine);
+	}
+	
+	/**
+	 * @param myCustomers : what myCustomers() returned.
+	 * @return true if the index didn't change since : it is still up to date.
+	 */
+	static boolean isCurrent(MyCustomers myCustomers) {
+		return loaded && myCustomers.version == version;
+	}
+	
+	/**
+	 * @return the number of indexed customers.
+	 */
+	public static int size() {
+		return customers.size();
+	}
+	
+	/**
+	 * Loads every customer having an account, with its accounts, and the employee ids of each login.
+	 * @param loaded : filled with the customers, by id.
+	 * @param employees : filled with the employee ids, by login.
+	 */
+	private static void load(Map<String, IndexedCustomer> loaded, Map<String, Set<String>> employees)
+			throws IllegalStateException, SQLException {
+		Connection databaseConnection = ConnectionPool.acquire();
+		try {
+			PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, LOAD_SQL);
+			statement.setFetchSize(1000);
+			ResultSet results = statement.executeQuery();
+			try {
+				while(results.next()) {
+					String id = results.getString(1);
+					IndexedCustomer customer = loaded.get(id);
+					if(customer == null) {
+						customer = new IndexedCustomer(id, results.getString(2), results.getString(3), results.getString(6));
+						loaded.put(id, customer);
+					}
+					customer.accounts.add(new Account(results.getString(4), results.getString(5)));
+				}
+			} finally {
+				results.close();
+			}
+			
+			statement = ConnectionPool.prepareStatement(databaseConnection, EMPLOYEES_SQL);
+			results = statement.executeQuery();
+			try {
+				while(results.next()) {
+					String login = results.getString(1);
+					Set<String> ids = employees.get(login);
+					if(ids == null) {
+						ids = new HashSet<>();
+						employees.put(login, ids);
+					}
+					ids.add(results.getString(2));
+				}
+			} finally {
+				results.close();
+			}
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			ConnectionPool.release(databaseConnection);
+		}
+		// The rows come in any order : sorting the accounts lets sameAs compare them
+		for(IndexedCustomer customer : loaded.values()) {
+			Collections.sort(customer.accounts, BY_ACCOUNT_ID);
+		}
+	}
+	
+	/**
+	 * @return true if the pattern is null, or matches the name. A null name never matches, like in SQL.
+	 */
+	static boolean matches(Pattern pattern, String name) {
+		return pattern == null || (name != null && pattern.matcher(name).matches());
+	}
+	
+	/**
+	 * Translates a LIKE pattern into a regular expression : '%' is any number of characters, '_' exactly one.
+	 * An empty pattern matches nothing : for Oracle, an empty string is NULL.
+	 */
+	static Pattern like(String pattern) {
+		if(pattern.isEmpty()) {
+			return Pattern.compile("(?!)");
+		}
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for(char c : pattern.toCharArray()) {
+			if(c == '%' || c == '_') {
+				if(literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '%' ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if(literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+	
+	/**
+	 * A customer of the CustomerIndex, with its accounts.
+	 */
+	static class IndexedCustomer {
+		final String id;
+		final String firstName;
+		final String lastName;
+		final String advisorId;
+		final List<Account> accounts = new ArrayList<>();
+		
+		IndexedCustomer(String id, String firstName, String lastName, String advisorId) {
+			this.id = id;
+			this.firstName = firstName;
+			this.lastName = lastName;
+			this.advisorId = advisorId;
+		}
+		
+		/**
+		 * @return true if the other customer has the same names, advisor and accounts : it doesn't need to be re-indexed.
+		 */
+		boolean sameAs(IndexedCustomer other) {
+			if(!equal(firstName, other.firstName) || !equal(lastName, other.lastName) || !equal(advisorId, other.advisorId)
+					|| accounts.size() != other.accounts.size()) {
+				return false;
+			}
+			for(int i = 0 ; i < accounts.size() ; i++) {
+				Account account = accounts.get(i);
+				Account otherAccount = other.accounts.get(i);
+				if(!equal(account.getAccount_id(), otherAccount.getAccount_id()) || !equal(account.getAccount_num(), otherAccount.getAccount_num())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+	
+	/**
+	 * The customers of an advisor, as of a version of the CustomerIndex. Immutable : held by a ClientState, and replaced once
+	 * the index changed (see CustomerIndex.isCurrent).
+	 */
+	static class MyCustomers {
+		final long version;
+		private final List<IndexedCustomer> customers;
+		
+		MyCustomers(long version, List<IndexedCustomer> customers) {
+			this.version = version;
+			this.customers = customers;
+		}
+		
+		/**
+		 * Searches among these customers, like CustomerIndex.search does among all of them.
+		 * @param firstName : the LIKE pattern of the first name. null to match any first name.
+		 * @param lastName : the LIKE pattern of the last name. null to match any last name.
+		 * @return the accounts of the matching customers, sorted by id.
+		 */
+		List<Account> search(String firstName, String lastName) {
+			Pattern firstNamePattern = firstName == null ? null : CustomerIndex.like(firstName);
+			Pattern lastNamePattern = lastName == null ? null : CustomerIndex.like(lastName);
+			List<Account> accounts = new ArrayList<>();
+			for(IndexedCustomer customer : customers) {
+				if(CustomerIndex.matches(firstNamePattern, customer.firstName) && CustomerIndex.matches(lastNamePattern, customer.lastName)) {
+					accounts.addAll(customer.accounts);
+				}
+			}
+			Collections.sort(accounts, CustomerIndex.BY_ACCOUNT_ID);
+			return accounts;
+		}
+	}
+	
+	/**
+	 * The ids of the names containing each trigram (3 consecutive characters). Thread-safe.
+	 */
+	static class TrigramIndex {
+		private final ConcurrentHashMap<String, Set<String>> postings = new ConcurrentHashMap<>();
+		
+		/**
+		 * Re-indexes a name. The trigrams of the new name are added before those of the old name are removed.
+		 * @param id : the id of the name's owner.
+		 * @param oldName : null if it wasn't indexed.
+		 * @param newName : null to remove it from the index.
+		 */
+		void replace(String id, String oldName, String newName) {
+			Set<String> newTrigrams = trigrams(newName);
+			for(String trigram : newTrigrams) {
+				Set<String> ids = postings.get(trigram);
+				if(ids == null) {
+					Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+					ids = postings.putIfAbsent(trigram, created);
+					if(ids == null) {
+						ids = created;
+					}
+				}
+				ids.add(id);
+			}
+			for(String trigram : trigrams(oldName)) {
+				if(!newTrigrams.contains(trigram)) {
+					Set<String> ids = postings.get(trigram);
+					if(ids != null) {
+						ids.remove(id);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * @param pattern : a LIKE pattern.
+		 * @return the ids whose names contain the rarest trigram of the pattern's literal parts.
+		 * null if the pattern is null or has no trigram : any id can match.
+		 */
+		Collection<String> candidates(String pattern) {
+			if(pattern == null) {
+				return null;
+			}
+			Set<String> best = null;
+			for(String literal : pattern.split("[%_]")) {
+				for(String trigram : trigrams(literal)) {
+					Set<String> ids = postings.get(trigram);
+					if(ids == null) {
+						return Collections.emptySet();
+					}
+					if(best == null || ids.size() < best.size()) {
+						best = ids;
+					}
+				}
+			}
+			return best;
+		}
+		
+		void clear() {
+			postings.clear();
+		}
+		
+		private static Set<String> trigrams(String name) {
+			Set<String> trigrams = new HashSet<>();
+			if(name != null) {
+				for(int i = 0 ; i + 3 <= name.length() ; i++) {
+					trigrams.add(name.substring(i, i + 3));
+				}
+			}
+			return trigrams;
+		}
+	}
+}
+
+enum CustomerIndexState {
+	initial,
+	ready
+}
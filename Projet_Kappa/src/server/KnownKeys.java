@@ -0,0 +1,322 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import util.BloomFilter;
+
+/**
+ * Bloom filters of the account ids and of the logins, so that the getSims queries on an account which doesn't exist, and
+ * the AUTH queries with a login which doesn't exist, are answered without the database : mistyped or scripted keys don't
+ * cost a query anymore.</br>
+ * A Bloom filter may let an unknown key through (about 1% of the time), and the database answers as before. It never
+ * rejects a key it was built with, but a key created since is missing from it : a negative is thus only trusted if the
+ * filter was rebuilt less than KNOWN_KEYS_MAX_STALENESS ago. Otherwise, the query goes to the database, until the next
+ * rebuild : a flood of unknown keys never triggers a rebuild by itself.</br>
+ * Both filters are rebuilt every KNOWN_KEYS_REFRESH_PERIOD, which KNOWN_KEYS_MAX_STALENESS should match, so that the
+ * negatives are trusted between two rebuilds. Until they are loaded, or if the rebuilds fail, every key is let through.
+ * A key known to be created since the last rebuild can be added with addLogin, or addAccount.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class KnownKeys {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(KnownKeys.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate KnownKeys
+	 */
+	private KnownKeys() {}
+	
+	private static final String ACCOUNTS_SQL = "SELECT Account_Id FROM ACCOUNTS";
+	private static final String LOGINS_SQL = "SELECT \"Login\" FROM USERS";
+	
+	/**
+	 * null until loaded. Replaced as a whole by each rebuild.
+	 */
+	private static volatile KeyFilter accounts;
+	private static volatile KeyFilter logins;
+	
+	/**
+	 * How long a negative of the filter is trusted after its rebuild started, in nanoseconds.
+	 */
+	private static volatile long maxStaleness;
+	
+	/**
+	 * The queries answered without the database.
+	 */
+	private static final AtomicLong rejected = new AtomicLong();
+	private static final AtomicLong rejectedLogins = new AtomicLong();
+	
+	/**
+	 * Rebuilds the filter in the background.
+	 */
+	private static ScheduledExecutorService refresher;
+	
+	/**
+	 * Only one refresh at a time.
+	 */
+	private static final Object refreshLock = new Object();
+	
+	/**
+	 * Status attribute.
+	 */
+	private static volatile KnownKeysState state = KnownKeysState.initial;
+	
+	
+	
+	
+	/**
+	 * Must be called once the ConnectionPool is ready. Returns right away : the filter is loaded in the background.
+	 * @param refreshPeriod : the time, in milliseconds, between the starts of two rebuilds.
+	 * @param maxStaleness : how long a negative is trusted after the start of a rebuild, in milliseconds.
+	 * @throws IllegalStateException : if KnownKeys was already initialized.
+	 */
+	public static synchronized void init(long refreshPeriod, long maxStaleness) throws IllegalStateException {
+		logger.trace("Entering KnownKeys.init");
+		
+		if(state == KnownKeysState.ready) {
+			logger.trace("Exiting KnownKeys.init with an IllegalStateException");
+			throw new IllegalStateException("KnownKeys init - already initialized");
+		}
+		
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "KnownKeysRefresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		KnownKeys.maxStaleness = TimeUnit.MILLISECONDS.toNanos(maxStaleness);
+		rejected.set(0);
+		rejectedLogins.set(0);
+		state = KnownKeysState.ready;
+		
+		// At a fixed rate : with KNOWN_KEYS_MAX_STALENESS = KNOWN_KEYS_REFRESH_PERIOD, a filter only goes stale while the
+		// next one is being loaded
+		refresher.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					refresh();
+				} catch (SQLException | IllegalStateException e) {
+					logger.warn("KnownKeys : can't refresh the filter. Retrying later.", e);
+				}
+			}
+		}, 0, Math.max(1000, refreshPeriod), TimeUnit.MILLISECONDS);
+		
+		logger.trace("Exiting KnownKeys.init");
+	}
+	
+	/**
+	 * Stops the refreshes, and drops the filters : every key is let through again.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering KnownKeys.cleanup");
+		
+		if(state == KnownKeysState.initial) {
+			logger.trace("Exiting KnownKeys.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = KnownKeysState.initial;
+		
+		refresher.shutdownNow();
+		refresher = null;
+		synchronized(refreshLock) {
+			accounts = null;
+			logins = null;
+		}
+		
+		logger.trace("Exiting KnownKeys.cleanup");
+	}
+	
+	/**
+	 * Rebuilds the filters from the database. The queries go on being checked against the old ones meanwhile.
+	 * @throws IllegalStateException : if the ConnectionPool is not ready.
+	 * @throws SQLException : if the keys can't be loaded. The filters are left as they were.
+	 */
+	public static void refresh() throws IllegalStateException, SQLException {
+		logger.trace("Entering KnownKeys.refresh");
+		
+		synchronized(refreshLock) {
+			long buildStart = System.nanoTime(); // A key created after this may be missing from the filters
+			BloomFilter accountFilter;
+			BloomFilter loginFilter;
+			Connection databaseConnection = ConnectionPool.acquire();
+			try {
+				accountFilter = load(databaseConnection, ACCOUNTS_SQL);
+				loginFilter = load(databaseConnection, LOGINS_SQL);
+			} finally {
+				// Good practice : the cleanup code is in a finally block.
+				ConnectionPool.release(databaseConnection);
+			}
+			if(state != KnownKeysState.ready) {
+				logger.trace("Exiting KnownKeys.refresh");
+				return; // Cleaned up in the meantime
+			}
+			accounts = new KeyFilter(accountFilter, buildStart, accounts);
+			logins = new KeyFilter(loginFilter, buildStart, logins);
+		}
+		
+		logger.trace("Exiting KnownKeys.refresh");
+	}
+	
+	/**
+	 * @param account_id : the account id of a query.
+	 * @return false if there is no such account : the query can be answered right away. true if there may be one,
+	 * or if the filter is too old to tell : the database must be queried.
+	 */
+	public static boolean mightBeAccount(String account_id) {
+		if(mightContain(accounts, account_id)) {
+			return true;
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * @param login : the login of an AUTH query.
+	 * @return false if there is no such user : the query can be answered with wrong_id right away. true if there may be
+	 * one, or if the filter is too old to tell : the database must be queried.
+	 */
+	public static boolean mightBeLogin(String login) {
+		if(mightContain(logins, login)) {
+			return true;
+		}
+		rejectedLogins.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Lets the queries on an account created since the last rebuild through, without waiting for the next one.
+	 * @param account_id : the id of the new account.
+	 */
+	public static void addAccount(String account_id) {
+		KeyFilter filter;
+		do {
+			filter = accounts;
+		} while(add(filter, account_id) && filter != accounts); // Replaced by a rebuild meanwhile : added to the new filter too
+	}
+	
+	/**
+	 * Lets the AUTH queries of a user created since the last rebuild through, without waiting for the next one.
+	 * @param login : the login of the new user.
+	 */
+	public static void addLogin(String login) {
+		KeyFilter filter;
+		do {
+			filter = logins;
+		} while(add(filter, login) && filter != logins);
+	}
+	
+	/**
+	 * @return the number of getSims queries answered without the database, because of an unknown account.
+	 */
+	public static long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * @return the number of AUTH queries answered without the database, because of an unknown login.
+	 */
+	public static long getRejectedLogins() {
+		return rejectedLogins.get();
+	}
+	
+	/**
+	 * @return false only if filter is loaded, recent enough, and doesn't contain key.
+	 */
+	private static boolean mightContain(KeyFilter filter, String key) {
+		if(filter == null || key == null || filter.keys.mightContain(key) || filter.added.containsKey(key)) {
+			return true;
+		}
+		// Past that, the key may have been created since : the database tells, until the next rebuild
+		return System.nanoTime() - filter.buildStart > maxStaleness;
+	}
+	
+	/**
+	 * @return true if the key was added, false if there is no filter to add it to.
+	 */
+	private static boolean add(KeyFilter filter, String key) {
+		if(filter == null || key == null) {
+			return false;
+		}
+		filter.added.put(key, System.nanoTime());
+		return true;
+	}
+	
+	/**
+	 * @param sql : a query whose first column is the keys.
+	 * @return a filter of the keys.
+	 */
+	private static BloomFilter load(Connection databaseConnection, String sql) throws SQLException {
+		List<String> keys = new ArrayList<>();
+		PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, sql);
+		statement.setFetchSize(1000);
+		ResultSet results = statement.executeQuery();
+		try {
+			while(results.next()) {
+				keys.add(results.getString(1));
+			}
+		} finally {
+			results.close();
+		}
+		
+		// Sized once the keys are counted, so that the false positive rate stays around 1%
+		BloomFilter filter = new BloomFilter(keys.size());
+		for(String key : keys) {
+			if(key != null) {
+				filter.add(key);
+			}
+		}
+		return filter;
+	}
+	
+	/**
+	 * A Bloom filter, with the time its rebuild started, and the keys added since : the filter itself isn't thread-safe
+	 * while keys are added to it.
+	 */
+	private static class KeyFilter {
+		final BloomFilter keys;
+		final long buildStart;
+		/**
+		 * The time each key was added at.
+		 */
+		final ConcurrentHashMap<String, Long> added = new ConcurrentHashMap<>();
+		
+		/**
+		 * @param previous : the filter it replaces. Its keys added after buildStart may be missing from keys : they are kept.
+		 */
+		KeyFilter(BloomFilter keys, long buildStart, KeyFilter previous) {
+			this.keys = keys;
+			this.buildStart = buildStart;
+			if(previous != null) {
+				for(Map.Entry<String, Long> key : previous.added.entrySet()) {
+					if(key.getValue() - buildStart >= 0) {
+						added.put(key.getKey(), key.getValue());
+					}
+				}
+			}
+		}
+	}
+}
+
+enum KnownKeysState {
+	initial,
+	ready
+}
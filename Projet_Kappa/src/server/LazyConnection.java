@@ -0,0 +1,51 @@
+package server;
+
+import java.sql.Connection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A connection from the pool, only acquired once a query actually needs the database : a query answered from memory
+ * doesn't take a connection from the pool. The queries of a BATCH share one.</br>
+ * Not thread-safe : it belongs to the thread handling the queries, which releases it once they are answered.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class LazyConnection {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(LazyConnection.class);
+
+	private Connection connection;
+
+	/**
+	 * True once the acquisition failed : the next queries don't wait for the pool again.
+	 */
+	private boolean failed = false;
+
+	/**
+	 * @return the connection, acquired on the first call. null if it can't be acquired.
+	 */
+	Connection get() {
+		if(connection == null && !failed) {
+			try {
+				connection = ConnectionPool.acquire();
+			} catch (Exception e) {
+				logger.warn("Can't acquire a connection from the pool", e);
+				failed = true;
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Gives the connection back to the pool, if it was acquired.
+	 */
+	void release() {
+		if(connection != null) {
+			ConnectionPool.release(connection);
+			connection = null;
+		}
+	}
+}
@@ -1,9 +1,16 @@
 package server;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import model.query.*;
 import model.response.*;
@@ -11,15 +18,38 @@ import model.response.GetSimsServerResponse.SimulationIdentifier;
 
 import org.apache.log4j.Logger;
 
+import util.JsonImpl;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Handles messages by interpreting them, and using JDBC connections acquired from the connection pool to treat them.</br>
  * What's important is that except in the case of the "BYE" message, the server always answers.</br>
  * This version of the protocol uses a two-level verification system : server responsed are prefixed by either
  * "OK" or "ERR" (if the query was ill-formatted, or a server-side issue makes handling it impossible), and if the prefix
  * was "OK", the JSON object contained within the response tells if the operation was carried out properly.
- * @version R3 sprint 1 - 18/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
  * @changes
+ * 		R3 sprint 2 -> R3 sprint 3:</br>
+ * 			-Every query handler except handleAuthQuery now has an overload working on a LazyConnection of the caller,
+ * 			so that the queries of a BATCH share one connection, only acquired if one of them needs the database</br>
+ * 			-getSim responses can be streamed : the repayments are written as they are fetched (see STREAM_GET_SIM)</br>
+ * 			-the queries use bind variables, and the PreparedStatements cached by the ConnectionPool</br>
+ * 			-getSim responses include the events, loaded along with the simulation's attributes in one query</br>
+ * 			-the rows are read by column index, with RowMappers, and fetched by DB_FETCH_SIZE rows at a time</br>
+ * 			-getAccounts and getSims responses are paginated with a keyset : see the limit and after attributes of their queries</br>
+ * 			-getAccounts searches by name are answered by the CustomerIndex once it is loaded</br>
+ * 			-getAccounts searches among the user's customers are answered with the customers held by its ClientState, and
+ * 			handleGetAccountsQuery takes the ClientState instead of the user id</br>
+ * 			-getSim responses are cached by the SimulationCache</br>
+ * 			-AUTH queries with a known login and the right password are answered by the CredentialStore once it is loaded</br>
+ * 			-getSims queries with an unknown account id, and AUTH queries with an unknown login, are answered without querying
+ * 			the database (see KnownKeys)</br>
+ * 			-streamed getSim responses fetch their attributes where the query is handled, and their repayments on the thread
+ * 			writing them, under the admission of their query. Only on the blocking transport, in LINE mode
  * 		R3 sprint 1 -> R3 sprint 2:</br>
  * 			-Removed the deprecated methods
  * 		R2 sprint 1 -> R3 sprint 1: </br>
@@ -32,6 +62,136 @@ public abstract class MessageHandler {
 	 */
 	private static Logger logger = Logger.getLogger(MessageHandler.class);
 	
+	/**
+	 * If true, getSim responses are streamed instead of being built in memory. Set from the STREAM_GET_SIM property.
+	 */
+	private static volatile boolean streamGetSim = false;
+	
+	/**
+	 * The SQL queries. User input is always given through bind variables, never concatenated : the queries are parsed
+	 * once per connection by the database, and can't be injected.
+	 */
+	private static final String AUTH_SQL = "SELECT \"Password\", \"Authorization_Level\" FROM USERS WHERE \"Login\"=?";
+	private static final String GET_SIMS_SQL = "SELECT Loan_Id, Name FROM Loans WHERE Is_Real='N' AND Account_Id=?";
+	private static final String REPAYMENTS_SQL = "SELECT * FROM Repayments WHERE \"Loan_Id\"=?";
+	
+	/**
+	 * The row mappers of the queries above.
+	 */
+	private static final RowMapper<GetAccountsServerResponse.Account> ACCOUNT_MAPPER =
+			new RowMapper<GetAccountsServerResponse.Account>("Account_Id", "Account_Num") {
+		public GetAccountsServerResponse.Account map(ResultSet results, int[] columns) throws SQLException {
+			return new GetAccountsServerResponse.Account(results.getString(columns[0]), results.getString(columns[1]));
+		}
+	};
+	private static final RowMapper<SimulationIdentifier> SIMULATION_MAPPER = new RowMapper<SimulationIdentifier>("Name", "Loan_Id") {
+		public SimulationIdentifier map(ResultSet results, int[] columns) throws SQLException {
+			return new SimulationIdentifier(results.getString(columns[0]), results.getString(columns[1]));
+		}
+	};
+	/**
+	 * Maps the attributes of a simulation, except its id, events and repayments.
+	 */
+	private static final RowMapper<GetSimServerResponse> LOAN_MAPPER = new RowMapper<GetSimServerResponse>("Amortization_Type",
+			"Capital", "Effective_Date", "Name", "RemainingOwedCapital", "Remaining_Repayments", "Repayment_Constant", "Repayment_Frequency") {
+		public GetSimServerResponse map(ResultSet results, int[] columns) throws SQLException {
+			GetSimServerResponse response = new GetSimServerResponse();
+			response.setAmortizationType(GetSimServerResponse.AmortizationType.valueOf(results.getString(columns[0])));
+			response.setCapital(results.getFloat(columns[1]));
+			response.setEffectiveDate(results.getDate(columns[2]));
+			response.setName(results.getString(columns[3]));
+			response.setRemainingOwedCapital(results.getFloat(columns[4]));
+			response.setRemainingRepayments(results.getInt(columns[5]));
+			response.setRepaymentConstant(results.getFloat(columns[6]));
+			response.setRepaymentFrequency(results.getInt(columns[7]));
+			return response;
+		}
+	};
+	/**
+	 * Maps an event of LOAN_WITH_EVENTS_SQL. Gives null on the row of a simulation without event.
+	 */
+	private static final RowMapper<GetSimServerResponse.Event> EVENT_MAPPER = new RowMapper<GetSimServerResponse.Event>("Event_Type",
+			"Event_Start", "Event_End", "Event_Value", "Is_Real") {
+		public GetSimServerResponse.Event map(ResultSet results, int[] columns) throws SQLException {
+			String eventType = results.getString(columns[0]);
+			if(eventType == null) {
+				return null;
+			}
+			return new GetSimServerResponse.Event(
+				GetSimServerResponse.Event.EventType.valueOf(eventType),
+				results.getDate(columns[1]),
+				results.getDate(columns[2]),
+				results.getFloat(columns[3]),
+				"Y".equals(results.getString(columns[4]))
+			);
+		}
+	};
+	private static final RowMapper<GetSimServerResponse.Repayment> REPAYMENT_MAPPER = new RowMapper<GetSimServerResponse.Repayment>("Date",
+			"Capital", "Interest", "Insurance") {
+		public GetSimServerResponse.Repayment map(ResultSet results, int[] columns) throws SQLException {
+			return new GetSimServerResponse.Repayment(
+				results.getDate(columns[0]),
+				results.getFloat(columns[1]),
+				results.getFloat(columns[2]),
+				results.getFloat(columns[3])
+			);
+		}
+	};
+	/**
+	 * Loads a simulation and all of its events in one round trip. The events live in one table per type : they are
+	 * gathered by a UNION ALL, then joined to the loan, whose attributes are thus repeated on each event's row.
+	 * The outer join still returns the loan when it has no event. Every bind variable is the simulation id.
+	 */
+	private static final String LOAN_WITH_EVENTS_SQL = "SELECT L.*, E.Event_Type, E.Event_Start, E.Event_End, E.Event_Value "
+			+ "FROM Loans L LEFT OUTER JOIN ("
+			+ "SELECT Loan_Id, 'RateModificationEvent' AS Event_Type, \"DATE\" AS Event_Start, "
+			+ "CAST(NULL AS DATE) AS Event_End, NewValue AS Event_Value FROM RateModificationEvents WHERE Loan_Id=? "
+			+ "UNION ALL SELECT Loan_Id, 'LoanDurationChange', \"DATE\", NULL, NewValue FROM LoanDurationChangeEvents WHERE Loan_Id=? "
+			+ "UNION ALL SELECT Loan_Id, 'TransfertOfPayment', StartDate, EndDate, NULL FROM TransfertOfPaymentEvents WHERE Loan_Id=? "
+			+ "UNION ALL SELECT Loan_Id, 'IncomeChange', \"DATE\", NULL, NewValue FROM IncomeChangeEvents WHERE Loan_Id=? "
+			+ "UNION ALL SELECT Loan_Id, 'LoanRedemption', StartDate, NULL, NULL FROM LoanRedemptionEvents WHERE Loan_Id=? "
+			+ "UNION ALL SELECT Loan_Id, 'RepaymentConstantChange', \"DATE\", NULL, NewValue FROM MonthlyChange WHERE Loan_Id=?"
+			+ ") E ON E.Loan_Id=L.Loan_Id WHERE L.Loan_Id=? ORDER BY E.Event_Start";
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param streamGetSim : the STREAM_GET_SIM property.
+	 */
+	static void setStreamGetSim(boolean streamGetSim) {
+		MessageHandler.streamGetSim = streamGetSim;
+	}
+	
+	/**
+	 * The number of rows fetched per round trip, for the lists of accounts and simulations, and for the repayments.
+	 * 0 keeps the driver's default. Set from the DB_FETCH_SIZE and DB_REPAYMENTS_FETCH_SIZE properties.
+	 */
+	private static volatile int fetchSize = 0;
+	private static volatile int repaymentsFetchSize = 0;
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param fetchSize : the DB_FETCH_SIZE property.
+	 * @param repaymentsFetchSize : the DB_REPAYMENTS_FETCH_SIZE property.
+	 */
+	static void setFetchSizes(int fetchSize, int repaymentsFetchSize) {
+		MessageHandler.fetchSize = fetchSize;
+		MessageHandler.repaymentsFetchSize = repaymentsFetchSize;
+	}
+	
+	/**
+	 * The most accounts or simulations in a response, whatever the limit the client asks for. 0 : no maximum.
+	 * Set from the PAGE_MAX_SIZE property.
+	 */
+	private static volatile int maxPageSize = 0;
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param maxPageSize : the PAGE_MAX_SIZE property.
+	 */
+	static void setMaxPageSize(int maxPageSize) {
+		MessageHandler.maxPageSize = maxPageSize;
+	}
+	
 	
 	
 	
@@ -44,27 +204,36 @@ public abstract class MessageHandler {
 	public static ServerResponse handleAuthQuery(AuthenticationQuery authQuery) {
 		logger.trace("Entering MessageHandler.handleAuthQuery");
 		
+		CredentialStore.StoredCredential credential = CredentialStore.lookup(authQuery.getId());
+		if(credential != null && credential.verify(authQuery.getPassword())) {
+			// Accepted by the CredentialStore : no round trip to the database. A refusal is checked against the database.
+			logger.trace("Exiting MessageHandler.handleAuthQuery");
+			return new AuthenticationServerResponse(credential.authorizationLevel);
+		}
+		if(!KnownKeys.mightBeLogin(authQuery.getId())) {
+			// No such user : the same answer as the database would give, without a round trip
+			logger.trace("Exiting MessageHandler.handleAuthQuery");
+			return new AuthenticationServerResponse(true);
+		}
+		
 		// Acquiring the JDBC connection from the pool
 		Connection databaseConnection;
 		try {
 			databaseConnection = ConnectionPool.acquire();
-		} catch (IllegalStateException | ClassNotFoundException | SQLException e) {
+		} catch (IllegalStateException | SQLException e) {
 			logger.trace("Exiting MessageHandler.handleAuthQuery");
 			logger.warn("Can't acquire a connection from the pool", e);
 			return new ErrorServerResponse("Server-side error. Please retry later.");
 		}
 		
 		try {
-			String SQLQuery = "SELECT * FROM USERS "
-					+ "WHERE \"Login\" LIKE '" + authQuery.getId() + "'";
-			
-			Statement statement = databaseConnection.createStatement();
+			PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, AUTH_SQL);
+			statement.setString(1, authQuery.getId());
 			
+			ResultSet results = statement.executeQuery();
 			try {
-				ResultSet results = statement.executeQuery(SQLQuery);
-				
 				if(results.next()) {
-					if(authQuery.getPassword().equals(results.getString("Password"))) {
+					if(passwordEquals(results.getString("Password"), authQuery.getPassword())) {
 						return new AuthenticationServerResponse(results.getInt("Authorization_Level"));
 					} else {
 						return new AuthenticationServerResponse(false);
@@ -72,11 +241,8 @@ public abstract class MessageHandler {
 				} else {
 					return new AuthenticationServerResponse(true);
 				}
-			} catch (SQLException e) {
-				logger.warn("SQLException caught", e);
-				throw e;
 			} finally {
-				statement.close();
+				results.close();
 			}
 		} catch (SQLException e) {
 			logger.warn("SQLException caught", e);
@@ -89,219 +255,487 @@ public abstract class MessageHandler {
 	}
 	
 	/**
-	 * Searches for accounts.
+	 * Compares two passwords in constant time, like the CredentialStore : the time taken doesn't tell which byte differs.
+	 * @return true if both are equal. Never if one of them is null.
+	 */
+	private static boolean passwordEquals(String expected, String given) {
+		if(expected == null || given == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Searches for accounts, using a connection from the pool.
 	 * @param query : contains optional search parameters:</br>
 	 * If firstName or lastName are not null, they will be used as search parameters.</br>
 	 * If myCustomers is true, the search will only take into account customers whose 
 	 * adviser is the current user.
+	 * @param state : the state of the client, whose customers are searched if myCustomers is true.
 	 * @return the server's response to the query. Never null nor an exception.
 	 */
-	public static ServerResponse handleGetAccountsQuery(GetAccountsQuery query, String user_id) {
+	static ServerResponse handleGetAccountsQuery(GetAccountsQuery query, ClientState state) {
+		LazyConnection databaseConnection = new LazyConnection();
+		try {
+			return handleGetAccountsQuery(query, state, databaseConnection);
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			databaseConnection.release();
+		}
+	}
+	
+	/**
+	 * Searches for accounts, using a connection the caller will release. It is only acquired if the CustomerIndex can't answer.
+	 * @see MessageHandler#handleGetAccountsQuery(GetAccountsQuery, ClientState)
+	 */
+	static ServerResponse handleGetAccountsQuery(GetAccountsQuery query, ClientState state, LazyConnection databaseConnection) {
 		logger.trace("Entering MessageHandler.handleGetAccountsQuery");
 		
-		// Constructing the SQL query
+		GetAccountsServerResponse indexed = searchCustomerIndex(query, state);
+		if(indexed != null) {
+			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
+			return indexed;
+		}
+		
+		Connection connection = databaseConnection.get();
+		if(connection == null) {
+			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
+			return new ErrorServerResponse("Server-side error. Please retry later.");
+		}
+		return searchAccounts(query, state, connection);
+	}
+	
+	/**
+	 * Searches for accounts in the database, once the CustomerIndex couldn't answer.
+	 * @see MessageHandler#handleGetAccountsQuery(GetAccountsQuery, ClientState, LazyConnection)
+	 */
+	private static ServerResponse searchAccounts(GetAccountsQuery query, ClientState state, Connection databaseConnection) {
+		// Constructing the SQL query : there is one per combination of search and pagination parameters
 		String SQLquery = "SELECT A.Account_Id, A.Account_Num FROM ACCOUNTS A";
+		List<String> conditions = new ArrayList<>(4);
+		List<String> parameters = new ArrayList<>(4);
 		
 		if((query.getFirstName() != null) || (query.getLastName() != null) || (query.isMyCustomers())) {
-			 SQLquery+= " INNER JOIN CUSTOMERS C ON A.Customer_Id=C.Customer_Id WHERE ";
+			 SQLquery+= " INNER JOIN CUSTOMERS C ON A.Customer_Id=C.Customer_Id";
 		}
 		
-		boolean first = true;
 		if(query.getFirstName() != null) {
-			first = false;
-			
-			SQLquery += "C.First_Name LIKE '" + query.getFirstName() + "'";
+			conditions.add("C.First_Name LIKE ?");
+			parameters.add(query.getFirstName());
 		}
 		
-		if(query.getFirstName() != null) {
-			if(!first) {
-				SQLquery += " AND ";
-			} else {
-				first = false;
-			}
-			
-			SQLquery += "C.Last_Name LIKE '" + query.getLastName() + "'";
+		if(query.getLastName() != null) {
+			conditions.add("C.Last_Name LIKE ?");
+			parameters.add(query.getLastName());
 		}
 		
 		if(query.isMyCustomers()) {
-			if(!first) {
-				SQLquery += " AND ";
-			}
-			
-			SQLquery += "C.Advisor_Id IN (SELECT Advisor_Id FROM EMPLOYEES WHERE User_login='" + user_id + "')";
+			conditions.add("C.Advisor_Id IN (SELECT Employee_Id FROM EMPLOYEES WHERE User_login=?)");
+			parameters.add(state.getUser_id());
 		}
 		
+		if(query.getAfter() != null) {
+			conditions.add("A.Account_Id > ?");
+			parameters.add(query.getAfter());
+		}
 		
+		for(int i = 0 ; i < conditions.size() ; i++) {
+			SQLquery += (i == 0 ? " WHERE " : " AND ") + conditions.get(i);
+		}
 		
-		// Connection and treatment
-		Connection databaseConnection;
-		try {
-			databaseConnection = ConnectionPool.acquire();
-		} catch (Exception e) {
-			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
-			logger.warn("Can't acquire a connection from the pool", e);
-			return new ErrorServerResponse("Server-side error. Please retry later.");
+		int pageSize = pageSize(query.getLimit());
+		if(pageSize > 0 || query.getAfter() != null) {
+			SQLquery = paginate(SQLquery, "A.Account_Id", pageSize);
 		}
 		
+		
+		
+		// Treatment
 		try {
-			Statement statement = databaseConnection.createStatement();
+			PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, SQLquery);
+			for(int i = 0 ; i < parameters.size() ; i++) {
+				statement.setString(i + 1, parameters.get(i));
+			}
+			if(pageSize > 0) {
+				statement.setInt(parameters.size() + 1, pageSize + 1);
+			}
+			statement.setFetchSize(pageSize > 0 ? Math.min(fetchSize, pageSize + 1) : fetchSize);
 			
+			ResultSet results = statement.executeQuery();
 			try {
-				ResultSet results = statement.executeQuery(SQLquery);
-				
-				GetAccountsServerResponse response = new GetAccountsServerResponse();
-				
-				while(results.next()) {
-					response.addAccount(results.getString("Account_Id"), results.getString("Account_Num"));
+				List<GetAccountsServerResponse.Account> accounts = ACCOUNT_MAPPER.mapAll(results);
+				GetAccountsServerResponse response = new GetAccountsServerResponse(accounts);
+				if(pageSize > 0 && accounts.size() > pageSize) {
+					accounts.remove(pageSize);
+					response.setNextCursor(accounts.get(pageSize - 1).getAccount_id());
 				}
 				
 				logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
 				return response;
-			} catch (SQLException e) {
-				throw e;
 			} finally {
-				statement.close();
+				results.close();
 			}
 		} catch (SQLException e) {
 			logger.warn("SQLException caught", e);
 			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
 			return new ErrorServerResponse("Database error");
-		} finally {
-			// Good practice : the cleanup code is in a finally block.
-			ConnectionPool.release(databaseConnection);
 		}
 	}
 	
 	/**
-	 * Searches for simulations associated with a particular account.
+	 * Answers a search by name, or among the client's customers, with the CustomerIndex, without the database.
+	 * The page is the one the database would give.
+	 * @return the response. null if the index can't answer : no name is searched and myCustomers is false, or the index isn't loaded.
+	 */
+	private static GetAccountsServerResponse searchCustomerIndex(GetAccountsQuery query, ClientState state) {
+		List<GetAccountsServerResponse.Account> accounts;
+		if(query.isMyCustomers()) {
+			CustomerIndex.MyCustomers myCustomers = state.getMyCustomers();
+			if(myCustomers == null) {
+				return null;
+			}
+			accounts = myCustomers.search(query.getFirstName(), query.getLastName());
+		} else if(query.getFirstName() != null || query.getLastName() != null) {
+			accounts = CustomerIndex.search(query.getFirstName(), query.getLastName());
+			if(accounts == null) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+		
+		// The accounts are sorted by id : the page starts after the cursor
+		int start = 0;
+		while(query.getAfter() != null && start < accounts.size() && accounts.get(start).getAccount_id().compareTo(query.getAfter()) <= 0) {
+			start++;
+		}
+		int pageSize = pageSize(query.getLimit());
+		int end = pageSize > 0 ? Math.min(accounts.size(), start + pageSize) : accounts.size();
+		GetAccountsServerResponse response = new GetAccountsServerResponse(new ArrayList<>(accounts.subList(start, end)));
+		if(end < accounts.size()) {
+			response.setNextCursor(accounts.get(end - 1).getAccount_id());
+		}
+		return response;
+	}
+	
+	/**
+	 * Searches for simulations associated with a particular account, using a connection from the pool.
 	 * @param query : contains the account id.
 	 * @return the server's response to the query. Never null nor an exception.
 	 */
 	public static ServerResponse handleGetSimsQuery(GetSimsQuery query) {
+		LazyConnection databaseConnection = new LazyConnection();
+		try {
+			return handleGetSimsQuery(query, databaseConnection);
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			databaseConnection.release();
+		}
+	}
+	
+	/**
+	 * Searches for simulations associated with a particular account, using a connection the caller will release.
+	 * It is only acquired if KnownKeys can't tell the account doesn't exist.
+	 * @see MessageHandler#handleGetSimsQuery(GetSimsQuery)
+	 */
+	static ServerResponse handleGetSimsQuery(GetSimsQuery query, LazyConnection databaseConnection) {
 		logger.trace("Entering MessageHandler.handleGetSimsQuery");
 		
-		String SQLquery = "SELECT Loan_Id, Name FROM Loans WHERE Is_Real='N' AND Account_Id='" + query.getAccount_id() + "'";
+		if(!KnownKeys.mightBeAccount(query.getAccount_id())) {
+			// No such account : no simulation either
+			logger.trace("Exiting MessageHandler.handleGetSimsQuery");
+			return new GetSimsServerResponse(new ArrayList<SimulationIdentifier>());
+		}
 		
-		Connection databaseConnection;
-		try {
-			databaseConnection = ConnectionPool.acquire();
-		} catch (Exception e) {
-			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
-			logger.warn("Can't acquire a connection from the pool", e);
+		Connection connection = databaseConnection.get();
+		if(connection == null) {
+			logger.trace("Exiting MessageHandler.handleGetSimsQuery");
 			return new ErrorServerResponse("Server-side error. Please retry later.");
 		}
+		return searchSims(query, connection);
+	}
+	
+	/**
+	 * Searches for the simulations of an account in the database, once KnownKeys couldn't tell it doesn't exist.
+	 * @see MessageHandler#handleGetSimsQuery(GetSimsQuery, LazyConnection)
+	 */
+	private static ServerResponse searchSims(GetSimsQuery query, Connection databaseConnection) {
+		String SQLquery = GET_SIMS_SQL;
+		int pageSize = pageSize(query.getLimit());
+		if(query.getAfter() != null) {
+			SQLquery += " AND Loan_Id > ?";
+		}
+		if(pageSize > 0 || query.getAfter() != null) {
+			SQLquery = paginate(SQLquery, "Loan_Id", pageSize);
+		}
 		
 		try {
-			Statement statement = databaseConnection.createStatement();
-
+			PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, SQLquery);
+			int parameter = 1;
+			statement.setString(parameter++, query.getAccount_id());
+			if(query.getAfter() != null) {
+				statement.setString(parameter++, query.getAfter());
+			}
+			if(pageSize > 0) {
+				statement.setInt(parameter, pageSize + 1);
+			}
+			statement.setFetchSize(pageSize > 0 ? Math.min(fetchSize, pageSize + 1) : fetchSize);
+			
+			ResultSet results = statement.executeQuery();
 			try {
-				ResultSet results = statement.executeQuery(SQLquery);
-				
-				GetSimsServerResponse response = new GetSimsServerResponse();
-				
-				while(results.next()) {
-					response.addSimulation(new SimulationIdentifier(results.getString("Name"), results.getString("Loan_Id")));
+				List<SimulationIdentifier> simulations = SIMULATION_MAPPER.mapAll(results);
+				GetSimsServerResponse response = new GetSimsServerResponse(simulations);
+				if(pageSize > 0 && simulations.size() > pageSize) {
+					simulations.remove(pageSize);
+					response.setNextCursor(simulations.get(pageSize - 1).getId());
 				}
 				
-				logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
+				logger.trace("Exiting MessageHandler.handleGetSimsQuery");
 				return response;
-			} catch (SQLException e) {
-				throw e;
 			} finally {
-				statement.close();
+				results.close();
 			}
 		} catch (SQLException e) {
 			logger.warn("SQLException caught", e);
-			logger.trace("Exiting MessageHandler.handleGetAccountsQuery");
+			logger.trace("Exiting MessageHandler.handleGetSimsQuery");
 			return new ErrorServerResponse("Database error");
-		} finally {
-			// Good practice : the cleanup code is in a finally block.
-			ConnectionPool.release(databaseConnection);
 		}
 	}
 
 	/**
-	 * Searches for one simulation in particular
+	 * Searches for one simulation in particular, using a connection from the pool. The response is never streamed.
 	 * @param query : contains the simulation id.
 	 * @return the server's response to the query. Never null nor an exception.
 	 */
 	public static ServerResponse handleGetSimQuery(GetSimQuery query) {
+		return handleGetSimQuery(query, false);
+	}
+	
+	/**
+	 * Searches for one simulation in particular, using a connection from the pool.
+	 * @param query : contains the simulation id.
+	 * @param streamable : true if the client's transport writes the responses as they are built : the blocking one, in
+	 * LINE mode. The response is then a StreamedGetSimResponse if STREAM_GET_SIM is TRUE.
+	 * @return the server's response to the query. Never null nor an exception.
+	 */
+	static ServerResponse handleGetSimQuery(GetSimQuery query, boolean streamable) {
+		LazyConnection databaseConnection = new LazyConnection();
+		try {
+			return handleGetSimQuery(query, databaseConnection, streamable && streamGetSim);
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			databaseConnection.release();
+		}
+	}
+	
+	/**
+	 * Searches for one simulation in particular, using a connection the caller will release. It is only acquired if
+	 * the simulation isn't cached. The response is never streamed : it is part of a BATCH response.
+	 * @see MessageHandler#handleGetSimQuery(GetSimQuery)
+	 */
+	static ServerResponse handleGetSimQuery(GetSimQuery query, LazyConnection databaseConnection) {
+		return handleGetSimQuery(query, databaseConnection, false);
+	}
+	
+	/**
+	 * @param stream : true to only fetch the attributes and events : the repayments are fetched as the response is being written.
+	 * @see MessageHandler#handleGetSimQuery(GetSimQuery, LazyConnection)
+	 */
+	private static ServerResponse handleGetSimQuery(GetSimQuery query, LazyConnection databaseConnection, boolean stream) {
 		logger.trace("Entering MessageHandler.handleGetSimQuery");
 		
-		// SQL queries
-		String SQLquery1 = "SELECT * FROM Repayments WHERE \"Loan_Id\"='" + query.getSim_id() + "'";
-		String SQLquery2 = "SELECT * FROM Events WHERE Loan_Id='" + query.getSim_id() + "'";
-		String SQLquery3 = "SELECT * FROM Loans WHERE Loan_Id='" + query.getSim_id() + "'";
+		GetSimServerResponse cached = SimulationCache.get(query.getSim_id());
+		if(cached != null) {
+			// Already in memory : neither streamed nor loaded
+			logger.trace("Exiting MessageHandler.handleGetSimQuery");
+			return cached;
+		}
+		
+		Connection connection = databaseConnection.get();
+		if(connection == null) {
+			logger.trace("Exiting MessageHandler.handleGetSimQuery");
+			return new ErrorServerResponse("Server-side error. Please retry later.");
+		}
+		if(stream) {
+			logger.trace("Exiting MessageHandler.handleGetSimQuery");
+			return prepareStreamedSim(query, connection);
+		}
+		return loadSim(query, connection);
+	}
+	
+	/**
+	 * Loads a simulation from the database, and puts it in the SimulationCache.
+	 * @see MessageHandler#handleGetSimQuery(GetSimQuery, LazyConnection)
+	 */
+	private static ServerResponse loadSim(GetSimQuery query, Connection databaseConnection) {
+		// Treatment
+		long cacheGeneration = SimulationCache.getGeneration();
+		long cacheLoadTime = System.nanoTime();
+		try {
+			/* Attributes and events */
+			GetSimServerResponse response = loadSimAttributesAndEvents(databaseConnection, query.getSim_id());
+			
+			/* Repayments */
+			ResultSet results = queryRepayments(databaseConnection, query.getSim_id());
+			try {
+				response.setRepayments(REPAYMENT_MAPPER.mapAll(results));
+			} finally {
+				results.close();
+			}
+			SimulationCache.put(response, cacheGeneration, cacheLoadTime);
+			
+			/* Return */
+			logger.trace("Exiting MessageHandler.handleGetSimQuery");
+			return response;
+		} catch (SQLException e) {
+			logger.warn("SQLException caught", e);
+			logger.trace("Exiting MessageHandler.handleGetSimQuery");
+			return new ErrorServerResponse("Database error");
+		}
+	}
+	
+	/**
+	 * Fetches the attributes and events of a simulation, for a StreamedGetSimResponse. Runs where the query is handled :
+	 * nothing but the repayments is fetched once the response is being written.
+	 * @param query : contains the simulation id.
+	 * @return a StreamedGetSimResponse, or an ErrorServerResponse. Never null nor an exception.
+	 */
+	private static ServerResponse prepareStreamedSim(GetSimQuery query, Connection databaseConnection) {
+		try {
+			/* Attributes and events */
+			GetSimServerResponse response = loadSimAttributesAndEvents(databaseConnection, query.getSim_id());
+			JsonObject attributes = JsonImpl.toJsonTree(response).getAsJsonObject();
+			attributes.remove("repayments");
+			return new StreamedGetSimResponse(query, attributes);
+		} catch (SQLException e) {
+			logger.warn("SQLException caught", e);
+			return new ErrorServerResponse("Database error");
+		}
+	}
+	
+	/**
+	 * Writes the response to a getSim query, using a connection from the pool. Unlike handleGetSimQuery, the repayments
+	 * are written one by one as they are fetched from the database, and are never all held in memory.</br>
+	 * Runs on the thread writing the response, while it holds the client's MessageWriter : the query's admission is held
+	 * by the StreamedGetSimResponse until then, so the AdmissionLimiter still bounds the connections held by streams.
+	 * Once "OK" is written, a database error can only be reported by an IOException.
+	 * @param query : contains the simulation id.
+	 * @param attributes : the simulation's attributes and events, as fetched by handleGetSimQuery.
+	 * @param out : where to write the response, without any delimiter.
+	 * @throws IOException : if out can't be written to, or a database error happened while the repayments were being written.
+	 * @see StreamedGetSimResponse
+	 */
+	static void streamGetSimQuery(GetSimQuery query, JsonObject attributes, Writer out) throws IOException {
+		logger.trace("Entering MessageHandler.streamGetSimQuery");
 		
-		// Connection and treatment
 		Connection databaseConnection;
 		try {
 			databaseConnection = ConnectionPool.acquire();
 		} catch (Exception e) {
-			logger.trace("Exiting MessageHandler.handleGetSimQuery");
 			logger.warn("Can't acquire a connection from the pool", e);
-			return new ErrorServerResponse("Server-side error. Please retry later.");
+			out.write(new ErrorServerResponse("Server-side error. Please retry later.").toString());
+			logger.trace("Exiting MessageHandler.streamGetSimQuery");
+			return;
 		}
 		
 		try {
-			Statement statement = databaseConnection.createStatement();
-
+			out.write("OK ");
+			JsonWriter writer = JsonImpl.newJsonWriter(out);
+			writer.beginObject();
+			for(Map.Entry<String, JsonElement> attribute : attributes.entrySet()) {
+				writer.name(attribute.getKey());
+				JsonImpl.toJson(attribute.getValue(), JsonElement.class, writer);
+			}
+			
+			/* Repayments */
+			writer.name("repayments");
+			writer.beginArray();
+			ResultSet results = queryRepayments(databaseConnection, query.getSim_id());
 			try {
-				GetSimServerResponse response = new GetSimServerResponse();
-				
-				/* Repayments */
-				ResultSet results = statement.executeQuery(SQLquery1);
+				int[] columns = REPAYMENT_MAPPER.resolve(results);
 				while(results.next()) {
-					response.getRepayments().add(new GetSimServerResponse.Repayment(
-						results.getDate("Date"),
-						results.getFloat("Capital"),
-						results.getFloat("Interest"),
-						results.getFloat("Insurance")
-					));
+					JsonImpl.toJson(REPAYMENT_MAPPER.map(results, columns), GetSimServerResponse.Repayment.class, writer);
 				}
-				
-				
-				/* Events */ 
-//				results = statement.executeQuery(SQLquery2);
-//				while(results.next()) {
-//					response.getEvents().add(new GetSimServerResponse.Event(
-//						GetSimServerResponse.Event.EventType.valueOf(results.getString("Type")),
-//						results.getDate("StartDate"),
-//						results.getDate("EndDate"),
-//						results.getFloat("Value"),
-//						results.getBoolean("Is_Real")
-//					));
-//				}
-				
-				/* Other attributes */
-				results = statement.executeQuery(SQLquery3);
-				if(results.next()) {
-					response.setAmortizationType(GetSimServerResponse.AmortizationType.valueOf(results.getString("Amortization_Type")));
-					response.setCapital(results.getFloat("Capital"));
-					response.setEffectiveDate(results.getDate("Effective_Date"));
-					response.setId(query.getSim_id());
-					response.setName(results.getString("Name"));
-					response.setRemainingOwedCapital(results.getFloat("RemainingOwedCapital"));
-					response.setRemainingRepayments(results.getInt("Remaining_Repayments"));
-					response.setRepaymentConstant(results.getInt("Repayment_Constant"));
-					response.setRepaymentFrequency(results.getInt("Repayment_Frequency"));
-				}
-				
-				/* Return */
-				logger.trace("Exiting MessageHandler.handleGetSimQuery");
-				return response;
-			} catch (SQLException e) {
-				throw e;
 			} finally {
-				statement.close();
+				results.close();
 			}
+			writer.endArray();
+			writer.endObject();
+			writer.flush(); // Not closed : that would close out
 		} catch (SQLException e) {
-			logger.warn("SQLException caught", e);
-			logger.trace("Exiting MessageHandler.handleGetSimQuery");
-			return new ErrorServerResponse("Database error");
+			logger.warn("SQLException caught while streaming a getSim response", e);
+			throw new IOException("Database error while streaming a getSim response", e);
 		} finally {
 			// Good practice : the cleanup code is in a finally block.
 			ConnectionPool.release(databaseConnection);
 		}
+		
+		logger.trace("Exiting MessageHandler.streamGetSimQuery");
+	}
+	
+	/**
+	 * Loads the attributes and the events of a simulation, in one round trip.
+	 * @return the simulation, without its repayments. Empty if the simulation doesn't exist.
+	 * @see MessageHandler#LOAN_WITH_EVENTS_SQL
+	 */
+	private static GetSimServerResponse loadSimAttributesAndEvents(Connection databaseConnection, String sim_id) throws SQLException {
+		PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, LOAN_WITH_EVENTS_SQL);
+		for(int i = 1 ; i <= 7 ; i++) {
+			statement.setString(i, sim_id);
+		}
+		
+		ResultSet results = statement.executeQuery();
+		try {
+			if(!results.next()) {
+				return new GetSimServerResponse();
+			}
+			int[] loanColumns = LOAN_MAPPER.resolve(results);
+			int[] eventColumns = EVENT_MAPPER.resolve(results);
+			GetSimServerResponse response = LOAN_MAPPER.map(results, loanColumns);
+			response.setId(sim_id);
+			do {
+				GetSimServerResponse.Event event = EVENT_MAPPER.map(results, eventColumns);
+				if(event != null) {
+					response.getEvents().add(event);
+				}
+			} while(results.next());
+			return response;
+		} finally {
+			results.close();
+		}
+	}
+	
+	/**
+	 * Runs the repayments query of a simulation. The rows are fetched DB_REPAYMENTS_FETCH_SIZE at a time.
+	 * @return the ResultSet, to be closed by the caller.
+	 */
+	private static ResultSet queryRepayments(Connection databaseConnection, String sim_id) throws SQLException {
+		PreparedStatement statement = ConnectionPool.prepareStatement(databaseConnection, REPAYMENTS_SQL);
+		statement.setString(1, sim_id);
+		statement.setFetchSize(repaymentsFetchSize);
+		return statement.executeQuery();
+	}
+	
+	/**
+	 * @param limit : the limit asked for by the client. null, or under 1, if it didn't ask for any.
+	 * @return the number of rows in the page : the limit, without going over PAGE_MAX_SIZE. 0 if the page has every row.
+	 */
+	private static int pageSize(Integer limit) {
+		if(limit == null || limit <= 0) {
+			return maxPageSize;
+		}
+		return maxPageSize > 0 ? Math.min(limit, maxPageSize) : limit;
+	}
+	
+	/**
+	 * Adds keyset pagination to a query : the rows are sorted by a unique key, and only the first pageSize + 1 are read.
+	 * The extra row tells if there is a next page, whose cursor is the key of the page's last row.
+	 * The query itself must only select the rows after the cursor.
+	 * @param pageSize : 0 to read every row. Otherwise, pageSize + 1 must be bound to the last bind variable.
+	 */
+	private static String paginate(String sql, String key, int pageSize) {
+		sql += " ORDER BY " + key;
+		// With ROWNUM, the database stops after the page : it only sorts the first rows, or reads them in the key's index
+		return pageSize > 0 ? "SELECT * FROM (" + sql + ") WHERE ROWNUM <= ?" : sql;
 	}
-}
\ No newline at end of file
+}
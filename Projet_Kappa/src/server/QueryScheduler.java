@@ -0,0 +1,260 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import model.response.ServerResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the queries of every client on a fixed number of threads, choosing which one goes first by priority class.</br>
+ * Each class has its own queue. The threads serve them in weighted round-robin : with weights 8, 3 and 1, out of 12
+ * queries taken while every queue is full, 8 are INTERACTIVE, 3 STANDARD and 1 BULK. Cheap interactive queries are thus
+ * never stuck behind heavy ones, which still progress in the background.</br>
+ * The caller's thread waits for its query to be handled, so a Session still answers its client in order.
+ * Until init() is called, queries are handled directly in the caller's thread.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class QueryScheduler {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(QueryScheduler.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate QueryScheduler
+	 */
+	private QueryScheduler() {}
+	
+	/**
+	 * The priority classes, from the most to the least urgent.
+	 */
+	public static enum PriorityClass {
+		/**
+		 * Cheap queries a user is waiting for : AUTH, getAccounts, getSims.
+		 */
+		INTERACTIVE,
+		/**
+		 * Queries loading a whole simulation : getSim.
+		 */
+		STANDARD,
+		/**
+		 * Queries of unbounded cost : BATCH, and the analytic queries of the agency directors and technical department.
+		 */
+		BULK
+	}
+	
+	/**
+	 * Status attribute. Guarded by lock.
+	 */
+	private static QuerySchedulerState state = QuerySchedulerState.initial;
+	
+	/**
+	 * Guards the queues, the credits, and the state.
+	 */
+	private static final Object lock = new Object();
+	
+	/**
+	 * One queue per priority class, indexed by ordinal.
+	 */
+	private static ArrayDeque<FutureTask<ServerResponse>>[] queues;
+	
+	/**
+	 * How many queries of each class are taken per round.
+	 */
+	private static int[] weights;
+	
+	/**
+	 * How many queries of each class can still be taken in the current round.
+	 */
+	private static int[] credits;
+	
+	/**
+	 * The threads handling the queries.
+	 */
+	private static Thread[] workers;
+	
+	
+	
+	
+	/**
+	 * Starts the threads. Must be called first.
+	 * @param threads : the number of queries handled at once.
+	 * @param interactiveWeight : the weight of the INTERACTIVE class.
+	 * @param standardWeight : the weight of the STANDARD class.
+	 * @param bulkWeight : the weight of the BULK class.
+	 * @throws IllegalStateException : if QueryScheduler was already initialized.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation
+	public static void init(int threads, int interactiveWeight, int standardWeight, int bulkWeight) throws IllegalStateException {
+		logger.trace("Entering QueryScheduler.init");
+		
+		synchronized(lock) {
+			if(state == QuerySchedulerState.ready) {
+				logger.trace("Exiting QueryScheduler.init with an IllegalStateException");
+				throw new IllegalStateException("QueryScheduler init - already initialized");
+			}
+			
+			queues = new ArrayDeque[PriorityClass.values().length];
+			for(int i = 0 ; i < queues.length ; i++) {
+				queues[i] = new ArrayDeque<>();
+			}
+			weights = new int[] {Math.max(1, interactiveWeight), Math.max(1, standardWeight), Math.max(1, bulkWeight)};
+			credits = weights.clone();
+			
+			workers = new Thread[threads];
+			for(int i = 0 ; i < threads ; i++) {
+				workers[i] = new Thread(new Runnable() {
+					public void run() {
+						work();
+					}
+				}, "QueryScheduler-" + i);
+				workers[i].start();
+			}
+			
+			state = QuerySchedulerState.ready;
+		}
+		
+		logger.trace("Exiting QueryScheduler.init");
+	}
+	
+	/**
+	 * Handles a query in its priority class, and waits for it to be handled.
+	 * @param priorityClass : the query's class. See getPriorityClass.
+	 * @param query : the treatment of the query.
+	 * @return the query's response.
+	 * @throws Exception : whatever the query threw.
+	 */
+	public static ServerResponse schedule(PriorityClass priorityClass, Callable<ServerResponse> query) throws Exception {
+		FutureTask<ServerResponse> task = new FutureTask<>(query);
+		synchronized(lock) {
+			if(state != QuerySchedulerState.ready) {
+				task = null;
+			} else {
+				queues[priorityClass.ordinal()].add(task);
+				lock.notify();
+			}
+		}
+		if(task == null) {
+			return query.call(); // Not initialized : handled directly
+		}
+		
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true; // The query was already queued : we still wait for its response
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @param prefix : a message's prefix
+	 * @param authorization_level : the authorization level of the client who sent it
+	 * @return the message's priority class
+	 */
+	public static PriorityClass getPriorityClass(String prefix, int authorization_level) {
+		switch(prefix) {
+		case "AUTH":
+		case "getAccounts":
+		case "getSims":
+			return PriorityClass.INTERACTIVE;
+		case "getSim":
+			// Agency directors and the technical department use simulations for analysis, not in front of a customer
+			return authorization_level >= 3 ? PriorityClass.BULK : PriorityClass.STANDARD;
+		default:
+			return PriorityClass.BULK;
+		}
+	}
+	
+	/**
+	 * The loop of the worker threads.
+	 */
+	private static void work() {
+		while(true) {
+			FutureTask<ServerResponse> task;
+			synchronized(lock) {
+				while((task = next()) == null) {
+					if(state != QuerySchedulerState.ready) {
+						return;
+					}
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			task.run();
+		}
+	}
+	
+	/**
+	 * Takes the next query, in weighted round-robin. Must hold the lock.
+	 * @return the next query, or null if every queue is empty.
+	 */
+	private static FutureTask<ServerResponse> next() {
+		for(int round = 0 ; round < 2 ; round++) {
+			for(int i = 0 ; i < queues.length ; i++) {
+				if(credits[i] > 0 && !queues[i].isEmpty()) {
+					credits[i]--;
+					return queues[i].poll();
+				}
+			}
+			// Every non-empty class used up its credits : new round
+			credits = weights.clone();
+		}
+		return null;
+	}
+	
+	/**
+	 * Lets the threads handle the queries already queued, then stops them.</br>
+	 * Must be called before exiting the application when QueryScheduler was initialized.
+	 */
+	public static void cleanup() {
+		logger.trace("Entering QueryScheduler.cleanup");
+		
+		Thread[] workers;
+		synchronized(lock) {
+			if(state == QuerySchedulerState.initial) {
+				logger.trace("Exiting QueryScheduler.cleanup with no treatment needed");
+				return;
+			} else
+				// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+				state = QuerySchedulerState.initial;
+			workers = QueryScheduler.workers;
+			lock.notifyAll();
+		}
+		
+		for(Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				logger.warn("Caught an InterruptedException during QueryScheduler cleanup", e);
+			}
+		}
+		
+		logger.trace("Exiting QueryScheduler.cleanup");
+	}
+}
+
+enum QuerySchedulerState {
+	initial,
+	ready
+}
@@ -0,0 +1,66 @@
+package server;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the rows of a ResultSet into objects, reading the cells by column index instead of column name.</br>
+ * Reading a cell by name makes the driver look the column up, on every row. A RowMapper looks its columns up once per
+ * ResultSet, with resolve(), and then reads each row by index with map().
+ * @param <T> : the class of the mapped objects.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public abstract class RowMapper<T> {
+	/**
+	 * The names of the columns read by map, in the order of the indexes it is given.
+	 */
+	private final String[] columns;
+	
+	/**
+	 * @param columns : the names of the columns read by map. Their indexes are given to map in the same order.
+	 */
+	protected RowMapper(String... columns) {
+		this.columns = columns;
+	}
+	
+	/**
+	 * Looks the columns up in a ResultSet. To be called once per ResultSet, before reading its rows.
+	 * @param results : the ResultSet which will be mapped.
+	 * @return the index of each column, in the order given to the constructor.
+	 * @throws SQLException : if one of the columns is not in the ResultSet.
+	 */
+	public final int[] resolve(ResultSet results) throws SQLException {
+		int[] indexes = new int[columns.length];
+		for(int i = 0 ; i < columns.length ; i++) {
+			indexes[i] = results.findColumn(columns[i]);
+		}
+		return indexes;
+	}
+	
+	/**
+	 * Maps the current row of a ResultSet.
+	 * @param results : the ResultSet, on the row to map.
+	 * @param indexes : what resolve() returned for this ResultSet. indexes[i] is the index of the i-th column.
+	 * @return the mapped object.
+	 * @throws SQLException : if a cell can't be read.
+	 */
+	public abstract T map(ResultSet results, int[] indexes) throws SQLException;
+	
+	/**
+	 * Maps every remaining row of a ResultSet. Doesn't close it.
+	 * @param results : the ResultSet, before its first row to map.
+	 * @return the mapped objects, in the order of the rows.
+	 * @throws SQLException : if a row can't be read.
+	 */
+	public final List<T> mapAll(ResultSet results) throws SQLException {
+		int[] indexes = resolve(results);
+		List<T> mapped = new ArrayList<>();
+		while(results.next()) {
+			mapped.add(map(results, indexes));
+		}
+		return mapped;
+	}
+}
@@ -0,0 +1,425 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.response.FramingServerResponse;
+import model.response.ServerResponse;
+
+import org.apache.log4j.Logger;
+
+import util.Compression;
+import util.Framing;
+import util.MessageReader;
+import util.MessageWriter;
+
+/**
+ * The attachment of a client connection handled by SelectorTransport.</br>
+ * It plays the part a Session thread plays in the blocking transport : it holds the client's state and buffers,
+ * cuts the incoming bytes into messages according to the negotiated framing mode, and makes sure the messages of a given
+ * client are handled one at a time, in order. Pipelined queries, which carry a request id, are handled concurrently instead.</br>
+ * read(), write() and close() are only called by the connection's I/O loop thread.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class SelectorConnection {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(SelectorConnection.class);
+	
+	/**
+	 * The charset of LINE messages. Same as MessageReader and MessageWriter.
+	 */
+	private static final Charset lineCharset = Charset.defaultCharset();
+	
+	private final SocketChannel channel;
+	private final SelectorTransport.SelectorLoop loop;
+	private SelectionKey key;
+	
+	/**
+	 * This client's state : user id and authorization level.
+	 */
+	private final ClientState state = new ClientState();
+	
+	/**
+	 * Buffer the channel is read into. Reused for every read.
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+	
+	/**
+	 * This connection's framing mode. Only changed by the I/O thread, during the FRAMING negotiation.
+	 */
+	private volatile Framing framing = Framing.LINE;
+	
+	/**
+	 * True if the client negotiated compression. Only changed by the I/O thread, during the FRAMING negotiation.
+	 */
+	private volatile boolean compression = false;
+	
+	/**
+	 * True until the first message is received : FRAMING is only accepted as the first message.
+	 */
+	private boolean firstMessage = true;
+	
+	/**
+	 * The bytes of the line currently being received (LINE mode).
+	 */
+	private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+	
+	/**
+	 * The lines of the message currently being received (LINE mode).
+	 */
+	private final StringBuilder currentMessage = new StringBuilder();
+	
+	/**
+	 * The header of the frame currently being received, and how many of its bytes were read (LENGTH mode).
+	 */
+	private final byte[] header = new byte[Framing.HEADER_SIZE];
+	private int headerRead = 0;
+	
+	/**
+	 * The payload of the frame currently being received (LENGTH mode). Reused for every frame, and only grows.
+	 */
+	private byte[] frame = new byte[8192];
+	private int frameLength = -1;
+	private int frameRead = 0;
+	private boolean frameCompressed = false;
+	
+	/**
+	 * Complete messages waiting to be handled. Guarded by this.
+	 */
+	private final Queue<String> pendingMessages = new LinkedList<>();
+	
+	/**
+	 * True while a worker thread is handling one of this client's messages. Guarded by this.
+	 */
+	private boolean busy = false;
+	
+	/**
+	 * Responses waiting to be written. Guarded by itself.
+	 */
+	private final Queue<ByteBuffer> pendingWrites = new LinkedList<>();
+	
+	/**
+	 * The number of this client's pipelined queries currently being handled.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/**
+	 * Set when the client said "BYE" : the connection is closed once every pending response, including the responses
+	 * to the pipelined queries in flight, is written.
+	 */
+	private volatile boolean closing = false;
+	
+	/**
+	 * Set by close(), so that the connection is only counted out once.
+	 */
+	private boolean closed = false;
+	
+	/**
+	 * When the last bytes were read from or written to the client, as given by System.currentTimeMillis().
+	 * Only changed by the I/O thread.
+	 */
+	private long lastActivity = System.currentTimeMillis();
+	
+	SelectorConnection(SocketChannel channel, SelectorTransport.SelectorLoop loop) {
+		this.channel = channel;
+		this.loop = loop;
+	}
+	
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+	/**
+	 * Reads what's available, and queues every complete message.
+	 * @throws IOException : if the client is gone, or sent an invalid frame header.
+	 */
+	void read() throws IOException {
+		int read = channel.read(readBuffer);
+		if(read == -1) {
+			throw new IOException("end of stream");
+		}
+		lastActivity = System.currentTimeMillis();
+		
+		readBuffer.flip();
+		if(framing == Framing.LENGTH) {
+			readFrames();
+		} else {
+			readLines();
+		}
+		readBuffer.clear();
+	}
+	
+	/**
+	 * LINE mode : like the blocking transport's MessageReader, a message is made of every line received until no more
+	 * data is available, which makes it possible to receive 2+ lines long messages (useful in the case of pretty printed JSON).
+	 */
+	private void readLines() {
+		while(readBuffer.hasRemaining()) {
+			byte b = readBuffer.get();
+			if(b == '\n') {
+				String line = new String(currentLine.toByteArray(), lineCharset);
+				if(line.endsWith("\r")) {
+					line = line.substring(0, line.length() - 1);
+				}
+				currentMessage.append(line);
+				currentLine.reset();
+			} else {
+				currentLine.write(b);
+			}
+		}
+		
+		// No partial line left : the message is complete
+		if(currentLine.size() == 0 && currentMessage.length() > 0) {
+			String message = currentMessage.toString();
+			currentMessage.setLength(0);
+			if(firstMessage && message.startsWith("FRAMING ")) {
+				negotiateFraming(message);
+			} else {
+				firstMessage = false;
+				dispatch(message);
+			}
+		}
+	}
+	
+	/**
+	 * LENGTH mode : header, then exactly the announced number of bytes, read into the reusable frame buffer.
+	 */
+	private void readFrames() throws IOException {
+		while(readBuffer.hasRemaining()) {
+			if(frameLength == -1) {
+				header[headerRead++] = readBuffer.get();
+				if(headerRead < Framing.HEADER_SIZE) {
+					continue;
+				}
+				headerRead = 0;
+				frameLength = MessageReader.decodeHeader(header, compression);
+				frameCompressed = MessageReader.isCompressed(header);
+				frameRead = 0;
+				if(frame.length < frameLength) {
+					frame = new byte[Math.max(frameLength, frame.length * 2)];
+				}
+			}
+			
+			int count = Math.min(readBuffer.remaining(), frameLength - frameRead);
+			readBuffer.get(frame, frameRead, count);
+			frameRead += count;
+			if(frameRead == frameLength) {
+				if(frameCompressed) {
+					dispatch(new String(Compression.inflate(frame, frameLength), Framing.FRAME_CHARSET));
+				} else {
+					dispatch(new String(frame, 0, frameLength, Framing.FRAME_CHARSET));
+				}
+				frameLength = -1;
+			}
+		}
+	}
+	
+	/**
+	 * Handles a FRAMING query received as the first message, directly in the I/O thread : nothing else can be pending yet.
+	 * The response is written in LINE mode, and the following messages are read in the new mode.
+	 */
+	private void negotiateFraming(String message) {
+		firstMessage = false;
+		ServerResponse response = Session.handleFramingMessage(message);
+		send(encode(response.toString()));
+		if(response instanceof FramingServerResponse) {
+			framing = ((FramingServerResponse) response).getMode();
+			compression = ((FramingServerResponse) response).getCompression() == Compression.DEFLATE;
+		}
+	}
+	
+	/**
+	 * Hands a pipelined query over to the workers right away, or queues a regular message behind this client's other ones.</br>
+	 * Stops reading from the client once it has too many pipelined queries in flight.
+	 */
+	private void dispatch(String message) {
+		String requestId = Session.getRequestId(message);
+		if(requestId != null) {
+			String body = Session.removeRequestId(message);
+			if(!body.equals("BYE")) {
+				if(inFlight.incrementAndGet() >= SelectorTransport.getMaxInFlight()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				}
+				SelectorTransport.submit(new PipelinedTask(requestId, body));
+				return;
+			}
+			message = body;
+		}
+		enqueue(message);
+	}
+	
+	/**
+	 * Queues a message, and wakes a worker up if none is handling this client's messages yet.
+	 */
+	private synchronized void enqueue(String message) {
+		pendingMessages.add(message);
+		if(!busy) {
+			busy = true;
+			SelectorTransport.submit(new MessageTask());
+		}
+	}
+	
+	/**
+	 * Handles this client's pending messages, one at a time. Runs in a worker thread.
+	 */
+	private class MessageTask implements Runnable {
+		@Override
+		public void run() {
+			String message;
+			synchronized(SelectorConnection.this) {
+				message = pendingMessages.poll();
+			}
+			
+			if(!closing) {
+				ServerResponse response = Session.handleMessage(message, state);
+				if(response == null) { // handleMessage returns null if clientMessage.equals("BYE")
+					closing = true;
+					requestWrite();
+				} else {
+					send(encode(response.toString()));
+				}
+			}
+			
+			synchronized(SelectorConnection.this) {
+				if(pendingMessages.isEmpty()) {
+					busy = false;
+				} else {
+					SelectorTransport.submit(this);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Handles one pipelined query, and answers it with its request id. Runs in a worker thread.
+	 */
+	private class PipelinedTask implements Runnable {
+		private final String requestId;
+		private final String message;
+		
+		PipelinedTask(String requestId, String message) {
+			this.requestId = requestId;
+			this.message = message;
+		}
+		
+		@Override
+		public void run() {
+			ServerResponse response = Session.handleMessage(message, state);
+			send(encode(Session.tagResponse(requestId, response.toString())));
+			
+			if(inFlight.decrementAndGet() == SelectorTransport.getMaxInFlight() - 1) {
+				// Below the limit again : resuming reading
+				loop.post(new Runnable() {
+					public void run() {
+						if(key.isValid()) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+						}
+					}
+				});
+			}
+			if(closing) {
+				requestWrite(); // Lets the I/O thread close the connection if this was the last query in flight
+			}
+		}
+	}
+	
+	/**
+	 * Encodes a response in the current framing mode, and compresses it if it was negotiated and the response is big enough.
+	 */
+	private byte[] encode(String response) {
+		if(framing == Framing.LENGTH) {
+			return MessageWriter.encodeFrame(response, compression ? Session.getCompressionThreshold() : -1);
+		}
+		return (response + System.lineSeparator()).getBytes(lineCharset);
+	}
+	
+	/**
+	 * Queues a response, and asks the I/O loop to write it.
+	 */
+	private void send(byte[] response) {
+		synchronized(pendingWrites) {
+			pendingWrites.add(ByteBuffer.wrap(response));
+		}
+		requestWrite();
+	}
+	
+	private void requestWrite() {
+		loop.post(new Runnable() {
+			public void run() {
+				if(key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Writes as much of the pending responses as the channel accepts.
+	 * @throws IOException : if the client is gone.
+	 */
+	void write() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		synchronized(pendingWrites) {
+			ByteBuffer buffer;
+			while((buffer = pendingWrites.peek()) != null) {
+				channel.write(buffer);
+				if(buffer.hasRemaining()) {
+					return; // The socket's buffer is full : we'll be called again once it's writable
+				}
+				pendingWrites.poll();
+			}
+		}
+		
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		if(closing && inFlight.get() == 0) {
+			logger.info("Connection terminated");
+			close();
+		}
+	}
+	
+	/**
+	 * Used by the I/O loop to find the idle connections.
+	 * @param deadline : as given by System.currentTimeMillis()
+	 * @return true if nothing was read from or written to the client since before the deadline, and none of its
+	 * messages are being handled or waiting to be written.
+	 */
+	boolean isIdleSince(long deadline) {
+		if(lastActivity >= deadline || inFlight.get() > 0) {
+			return false;
+		}
+		synchronized(this) {
+			if(busy) {
+				return false;
+			}
+		}
+		synchronized(pendingWrites) {
+			return pendingWrites.isEmpty();
+		}
+	}
+	
+	/**
+	 * Closes the connection. Can be called several times.
+	 */
+	void close() {
+		if(!closed) {
+			closed = true;
+			SelectorTransport.connectionClosed();
+		}
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Exception caught while attempting to close a socket", e);
+		}
+	}
+}
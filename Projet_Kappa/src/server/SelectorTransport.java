@@ -0,0 +1,342 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Non-blocking transport, used instead of one Session thread per client when SERVER_TRANSPORT=NIO.</br>
+ * A few I/O threads, each owning a Selector, share all the client connections. They read the clients' messages, and hand
+ * every complete message over to a pool of worker threads, which dispatch it through Session.handleMessage, just like a
+ * Session would. Pipelined queries (see Session.getRequestId) are handed over as soon as they are read.</br>
+ * The state of each connection (user id, authorization level, buffers) is held by a SelectorConnection attached to its
+ * SelectionKey, not by a thread.</br>
+ * Like the SessionRegistry does for the blocking transport, the I/O loops close the connections which stay idle for
+ * longer than the idle timeout.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class SelectorTransport {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(SelectorTransport.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate SelectorTransport
+	 */
+	private SelectorTransport() {}
+	
+	/**
+	 * Status attribute. All methods in this implementation can throw IllegalStateExceptions.
+	 */
+	private static SelectorTransportState state = SelectorTransportState.initial;
+	
+	/**
+	 * The I/O loops. Each one runs in its own thread, and owns the connections it was given by register().
+	 */
+	private static SelectorLoop[] loops;
+	
+	/**
+	 * The worker threads, which call the MessageHandler through Session.handleMessage.
+	 */
+	private static ExecutorService workers;
+	
+	/**
+	 * Used to distribute new connections between the I/O loops in a round-robin fashion.
+	 */
+	private static AtomicInteger nextLoop = new AtomicInteger();
+	
+	/**
+	 * The maximum number of pipelined queries a client can have in flight at once.
+	 */
+	private static int maxInFlight;
+	
+	/**
+	 * In milliseconds. 0 means connections are never closed for being idle.
+	 */
+	private static long idleTimeout;
+	
+	/**
+	 * The number of open connections.
+	 */
+	private static final AtomicInteger connectionCount = new AtomicInteger();
+	
+	
+	
+	
+	/**
+	 * Opens the selectors and starts the I/O and worker threads.
+	 * @param ioThreads : the number of I/O threads (and selectors).
+	 * @param workerThreads : the number of threads handling the messages.
+	 * @param maxInFlight : the maximum number of pipelined queries a client can have in flight at once.
+	 * @param idleTimeout : the time, in milliseconds, after which a connection with nothing to do is closed. 0 to disable.
+	 * @throws IllegalStateException : if SelectorTransport was already initialized.
+	 * @throws IOException : if a selector can't be opened.
+	 */
+	public static synchronized void init(int ioThreads, int workerThreads, int maxInFlight, long idleTimeout) throws IllegalStateException, IOException {
+		logger.trace("Entering SelectorTransport.init");
+		
+		if(state == SelectorTransportState.ready) {
+			logger.trace("Exiting SelectorTransport.init with an IllegalStateException");
+			throw new IllegalStateException("SelectorTransport init - already initialized");
+		}
+		
+		SelectorTransport.maxInFlight = maxInFlight;
+		SelectorTransport.idleTimeout = idleTimeout;
+		workers = Executors.newFixedThreadPool(workerThreads);
+		loops = new SelectorLoop[ioThreads];
+		try {
+			for(int i = 0 ; i < ioThreads ; i++) {
+				loops[i] = new SelectorLoop(Selector.open());
+			}
+		} catch (IOException e) {
+			// Cleans up the already opened selectors before exiting
+			for(SelectorLoop loop : loops) {
+				if(loop != null) {
+					loop.selector.close();
+				}
+			}
+			workers.shutdown();
+			logger.trace("Exiting SelectorTransport.init with an IOException");
+			throw e;
+		}
+		for(int i = 0 ; i < ioThreads ; i++) {
+			Thread thread = new Thread(loops[i], "SelectorLoop-" + i);
+			loops[i].thread = thread;
+			thread.start();
+		}
+		
+		state = SelectorTransportState.ready;
+		logger.trace("Exiting SelectorTransport.init");
+	}
+	
+	/**
+	 * Hands a newly accepted connection over to one of the I/O loops.
+	 * @param channel : the channel of the Socket returned by ServerSocket.accept()
+	 * @throws IllegalStateException : if SelectorTransport is not yet initialized, or already cleaned up
+	 * @throws IOException : if the channel can't be switched to non-blocking mode.
+	 */
+	public static void register(SocketChannel channel) throws IllegalStateException, IOException {
+		logger.trace("Entering SelectorTransport.register");
+		
+		if(state != SelectorTransportState.ready) {
+			logger.trace("Exiting SelectorTransport.register with an IllegalStateException");
+			throw new IllegalStateException("SelectorTransport register - not yet initialized, or already cleaned up");
+		}
+		
+		channel.configureBlocking(false);
+		int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+		loops[index].register(channel);
+		
+		logger.trace("Exiting SelectorTransport.register");
+	}
+	
+	static int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	/**
+	 * @return the number of open connections. 0 if SelectorTransport is not used.
+	 */
+	public static int getConnectionCount() {
+		return connectionCount.get();
+	}
+	
+	static void connectionOpened() {
+		connectionCount.incrementAndGet();
+	}
+	
+	static void connectionClosed() {
+		connectionCount.decrementAndGet();
+	}
+	
+	/**
+	 * Gives a complete message to the worker threads.
+	 * @param task : the treatment of the message.
+	 */
+	static void submit(Runnable task) {
+		workers.execute(task);
+	}
+	
+	/**
+	 * Closes every connection, and stops the I/O and worker threads.</br>
+	 * Must be called before exiting the application when SelectorTransport was initialized.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering SelectorTransport.cleanup");
+		
+		if(state == SelectorTransportState.initial) {
+			logger.trace("Exiting SelectorTransport.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = SelectorTransportState.initial;
+		
+		// Stopping the I/O loops, which close their connections on exit
+		for(SelectorLoop loop : loops) {
+			loop.exit();
+		}
+		for(SelectorLoop loop : loops) {
+			try {
+				loop.thread.join();
+			} catch (InterruptedException e) {
+				logger.warn("Caught an InterruptedException during SelectorLoop cleanup", e);
+			}
+		}
+		
+		// Letting the workers finish the messages they already started handling
+		workers.shutdown();
+		try {
+			if(!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.warn("Some messages were still being handled when SelectorTransport was cleaned up.");
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Caught an InterruptedException during worker cleanup", e);
+		}
+		
+		logger.trace("Exiting SelectorTransport.cleanup");
+	}
+	
+	
+	
+	/**
+	 * One I/O thread and its Selector.</br>
+	 * Only this thread touches its selector's keys : other threads post tasks to it, and wake the selector up.
+	 */
+	static class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private volatile boolean exit = false;
+		private Thread thread;
+		
+		SelectorLoop(Selector selector) {
+			this.selector = selector;
+		}
+		
+		/**
+		 * Registers a new connection with this loop's selector.
+		 */
+		void register(final SocketChannel channel) {
+			post(new Runnable() {
+				public void run() {
+					try {
+						SelectorConnection connection = new SelectorConnection(channel, SelectorLoop.this);
+						connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+						connectionOpened();
+					} catch (ClosedChannelException e) {
+						logger.info("Connection closed before it could be registered.");
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Runs a task in this loop's thread, as soon as possible.
+		 */
+		void post(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+		
+		void exit() {
+			exit = true;
+			selector.wakeup();
+		}
+		
+		@Override
+		public void run() {
+			logger.trace("Entering SelectorLoop.run");
+			// Checking 4 times per timeout : an idle connection is closed at most 25% later than it should be
+			long idleCheckPeriod = Math.max(1000, idleTimeout / 4);
+			long nextIdleCheck = System.currentTimeMillis() + idleCheckPeriod;
+			while(!exit) {
+				try {
+					if(idleTimeout > 0) {
+						selector.select(idleCheckPeriod);
+					} else {
+						selector.select();
+					}
+				} catch (IOException e) {
+					logger.error("IOException caught during Selector.select", e);
+					break;
+				}
+				
+				// Tasks posted by other threads
+				Runnable task;
+				while((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						// A failed task mustn't stop the loop : the other connections still need it
+						logger.error("Exception caught in a SelectorLoop task", e);
+					}
+				}
+				
+				// Network events
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					
+					SelectorConnection connection = (SelectorConnection) key.attachment();
+					try {
+						if(key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+						if(key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+					} catch (IOException e) {
+						logger.info("Connection terminated : " + e.getMessage());
+						connection.close();
+					} catch (RuntimeException e) {
+						// Only this connection is lost : the loop goes on serving the others
+						logger.error("Exception caught while handling a connection. Closing it.", e);
+						connection.close();
+					}
+				}
+				
+				// Idle connections
+				if(idleTimeout > 0 && System.currentTimeMillis() >= nextIdleCheck) {
+					long deadline = System.currentTimeMillis() - idleTimeout;
+					for(SelectionKey key : selector.keys()) {
+						SelectorConnection connection = (SelectorConnection) key.attachment();
+						if(key.isValid() && connection.isIdleSince(deadline)) {
+							logger.info("Closing a connection idle for more than " + idleTimeout + " ms.");
+							connection.close();
+						}
+					}
+					nextIdleCheck = System.currentTimeMillis() + idleCheckPeriod;
+				}
+			}
+			
+			// Cleanup : closing every connection this loop owns
+			for(SelectionKey key : selector.keys()) {
+				((SelectorConnection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.warn("Exception caught while closing a Selector.", e);
+			}
+			logger.trace("Exiting SelectorLoop.run");
+		}
+	}
+}
+
+enum SelectorTransportState {
+	initial,
+	ready
+}
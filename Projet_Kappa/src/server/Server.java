@@ -1,13 +1,34 @@
 package server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.SQLException;
-import java.util.HashSet;
 import java.util.Properties;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import model.query.AuthenticationQuery;
+import model.query.FramingQuery;
+import model.query.GetAccountsQuery;
+import model.query.GetSimQuery;
+import model.query.GetSimsQuery;
+import model.response.AuthenticationServerResponse;
+import model.response.BatchServerResponse;
+import model.response.BusyServerResponse;
+import model.response.ErrorServerResponse;
+import model.response.FramingServerResponse;
+import model.response.GetAccountsServerResponse;
+import model.response.GetSimServerResponse;
+import model.response.GetSimsServerResponse;
+import model.response.UnauthorizedErrorServerResponse;
 
 import org.apache.log4j.Logger;
 
@@ -17,8 +38,23 @@ import util.KappaProperties;
 /**
  * Main class of the project. </br>
  * Handles the initialization and cleanup processes, as well as the ServerSocket and the creation of ProtocolHandlers in separate threads.
- * @version R2 sprint 1 - 18/03/2016
+ * @version R3 sprint 3
  * @author Kappa-V
+ * @changes
+ * 		R2 sprint 1 -> R3 sprint 3: </br>
+ * 			-added the NIO transport : if SERVER_TRANSPORT=NIO, accepted connections are handed over to SelectorTransport
+ * 			instead of being given their own Session thread.
+ * 			-Sessions are now run by an executor, which uses platform or virtual threads depending on SESSION_EXECUTION_MODE
+ * 			-added the request executor, which runs the pipelined queries of every Session
+ * 			-replaced the clients set, which kept every Session ever launched, by the SessionRegistry
+ * 			-initializes the AdmissionLimiter and the QueryScheduler
+ * 			-typing "stats" in the console displays the ConnectionPoolMetrics
+ * 			-the ConnectionPool is initialized in parallel with the other components, and the Gson adapters are warmed up
+ * 			-initializes the CustomerIndex once the ConnectionPool is ready
+ * 			-initializes the SimulationCache. Typing "invalidate" in the console invalidates it.
+ * 			-initializes the CredentialStore and KnownKeys once the ConnectionPool is ready. Typing "invalidate-user" in the
+ * 			console invalidates a user of the CredentialStore.
+ * 			-when initAll fails, the components it already initialized are cleaned up, executors included
  */
 public class Server {
 	/**
@@ -42,10 +78,34 @@ public class Server {
 	private static ServerSocket serverSocket;
 	
 	/**
-	 * This set contains a reference every ProtocolHandler which has been launched since the server was launched.</br>
-	 * It is used to signal all of these ProtocolHandler when cleaning up.
+	 * True if the server uses SelectorTransport instead of one Session thread per client.
+	 */
+	private static boolean nio;
+	
+	/**
+	 * Runs the Sessions of the blocking transport. See createSessionExecutor.
+	 */
+	private static ExecutorService sessionExecutor;
+	
+	/**
+	 * Runs the pipelined queries of the blocking transport's Sessions.
+	 */
+	private static ExecutorService requestExecutor;
+	
+	/**
+	 * The maximum number of pipelined queries a client can have in flight at once.
+	 */
+	private static int maxInFlight;
+	
+	/**
+	 * The classes exchanged with the clients, whose Gson adapters are built on launch.
 	 */
-	private static Set<Session> clients;
+	private static final Class<?>[] PROTOCOL_CLASSES = {
+		AuthenticationQuery.class, GetAccountsQuery.class, GetSimsQuery.class, GetSimQuery.class, FramingQuery.class,
+		AuthenticationServerResponse.class, GetAccountsServerResponse.class, GetSimsServerResponse.class,
+		GetSimServerResponse.class, FramingServerResponse.class, ErrorServerResponse.class, BatchServerResponse.class,
+		BusyServerResponse.class, UnauthorizedErrorServerResponse.class
+	};
 	
 	/**
 	 * Initializes every class that needs to be, in the right order. </br>
@@ -72,29 +132,159 @@ public class Server {
 		}
 		JsonImpl.init();
 		
+		// Opening the database connections while the other components are initialized
+		FutureTask<Void> connectionPoolInit = new FutureTask<>(new Callable<Void>() {
+			public Void call() throws Exception {
+				ConnectionPool.init();
+				return null;
+			}
+		});
+		new Thread(connectionPoolInit, "ConnectionPoolInit").start();
+		
 		// Initializing server attributes
 		exit = false;
-		clients = new HashSet<>();
+		serverSocket = null;
+		requestExecutor = null;
+		sessionExecutor = createSessionExecutor(KappaProperties.getInstance().getProperty("SESSION_EXECUTION_MODE", "PLATFORM"));
 		
 		// Initializing server components
 		try {
 			Properties prop = KappaProperties.getInstance();
-			serverSocket = new ServerSocket(Integer.parseInt(prop.getProperty("SERVER_PORT")));
+			int port = Integer.parseInt(prop.getProperty("SERVER_PORT"));
+			nio = prop.getProperty("SERVER_TRANSPORT", "BLOCKING").equals("NIO");
+			maxInFlight = Integer.parseInt(prop.getProperty("PIPELINING_MAX_IN_FLIGHT", "8"));
+			MessageHandler.setStreamGetSim(prop.getProperty("STREAM_GET_SIM", "FALSE").equals("TRUE"));
+			Session.setBatchMaxSize(Integer.parseInt(prop.getProperty("BATCH_MAX_SIZE", "50")));
+			Session.setStreamWriteTimeout(Long.parseLong(prop.getProperty("STREAM_WRITE_TIMEOUT", "60000")));
+			MessageHandler.setFetchSizes(Integer.parseInt(prop.getProperty("DB_FETCH_SIZE", "100")),
+					Integer.parseInt(prop.getProperty("DB_REPAYMENTS_FETCH_SIZE", "500")));
+			MessageHandler.setMaxPageSize(Integer.parseInt(prop.getProperty("PAGE_MAX_SIZE", "0")));
+			Session.setCompressionThreshold(Integer.parseInt(prop.getProperty("COMPRESSION_THRESHOLD", "4096")));
+			long idleTimeout = Long.parseLong(prop.getProperty("SESSION_IDLE_TIMEOUT", "1800000"));
+			AdmissionLimiter.init(Integer.parseInt(prop.getProperty("ADMISSION_INITIAL_LIMIT", "20")),
+					Integer.parseInt(prop.getProperty("ADMISSION_MIN_LIMIT", "2")),
+					Integer.parseInt(prop.getProperty("ADMISSION_MAX_LIMIT", "200")),
+					Long.parseLong(prop.getProperty("ADMISSION_LATENCY_THRESHOLD", "250")));
+			int schedulerThreads = Integer.parseInt(prop.getProperty("SCHEDULER_THREADS", "16"));
+			if(schedulerThreads > 0) {
+				QueryScheduler.init(schedulerThreads, Integer.parseInt(prop.getProperty("SCHEDULER_INTERACTIVE_WEIGHT", "8")),
+						Integer.parseInt(prop.getProperty("SCHEDULER_STANDARD_WEIGHT", "3")),
+						Integer.parseInt(prop.getProperty("SCHEDULER_BULK_WEIGHT", "1")));
+			}
+			if(nio) {
+				// The ServerSocket of a channel still accepts in blocking mode, but its Sockets have channels SelectorTransport can use
+				ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind(new InetSocketAddress(port));
+				serverSocket = serverChannel.socket();
+				try {
+					SelectorTransport.init(Integer.parseInt(prop.getProperty("SERVER_IO_THREADS", "2")),
+							Integer.parseInt(prop.getProperty("SERVER_WORKER_THREADS", "16")), maxInFlight, idleTimeout);
+				} catch(IOException | RuntimeException e) {
+					serverSocket.close();
+					throw e;
+				}
+			} else {
+				serverSocket = new ServerSocket(port);
+				SessionRegistry.init(idleTimeout);
+				requestExecutor = Executors.newFixedThreadPool(Integer.parseInt(prop.getProperty("PIPELINING_THREADS", "16")));
+			}
+			JsonImpl.warmUp(PROTOCOL_CLASSES);
 		} catch(Throwable t) {
 			logger.trace("Exiting Server.initAll with a " + t.getClass().getName());
+			cleanupComponents();
+			try {
+				awaitConnectionPool(connectionPoolInit);
+			} catch (IllegalStateException | ClassNotFoundException | SQLException e) {
+				// The server can't start anyway
+			}
+			ConnectionPool.cleanup();
 			throw t;
 		}
 		try {
-			ConnectionPool.init();
+			awaitConnectionPool(connectionPoolInit);
 		} catch (IllegalStateException | ClassNotFoundException | SQLException e) {
 			logger.trace("Exiting Server.initAll with a " + e.getClass().getName());
-			serverSocket.close(); // Cleans up the already initialized components before exiting
+			cleanupComponents();
 			throw e;
 		}
+		long customerIndexRefreshPeriod = Long.parseLong(KappaProperties.getInstance().getProperty("CUSTOMER_INDEX_REFRESH_PERIOD", "60000"));
+		if(customerIndexRefreshPeriod > 0) {
+			CustomerIndex.init(customerIndexRefreshPeriod); // Loaded in the background : the database answers the searches meanwhile
+		}
+		long credentialStoreRefreshPeriod = Long.parseLong(KappaProperties.getInstance().getProperty("CREDENTIAL_STORE_REFRESH_PERIOD", "60000"));
+		if(credentialStoreRefreshPeriod > 0) {
+			CredentialStore.init(credentialStoreRefreshPeriod); // Same : the database answers the AUTH queries until it is loaded
+		}
+		long knownKeysRefreshPeriod = Long.parseLong(KappaProperties.getInstance().getProperty("KNOWN_KEYS_REFRESH_PERIOD", "60000"));
+		if(knownKeysRefreshPeriod > 0) {
+			KnownKeys.init(knownKeysRefreshPeriod, Long.parseLong(KappaProperties.getInstance().getProperty("KNOWN_KEYS_MAX_STALENESS",
+					String.valueOf(knownKeysRefreshPeriod))));
+		}
+		int simCacheSize = Integer.parseInt(KappaProperties.getInstance().getProperty("SIM_CACHE_SIZE", "1000"));
+		if(simCacheSize > 0) {
+			SimulationCache.init(simCacheSize, Long.parseLong(KappaProperties.getInstance().getProperty("SIM_CACHE_TTL", "30000")));
+		}
 		
 		state = ServerState.ready;
 	}
 	
+	/**
+	 * Cleans up the components initAll already initialized, when it fails. No client is connected yet.
+	 */
+	private static void cleanupComponents() {
+		if(serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				logger.warn("Exception caught while attempting to close the server socket", e);
+			}
+		}
+		SelectorTransport.cleanup();
+		SessionRegistry.cleanup();
+		AdmissionLimiter.cleanup();
+		QueryScheduler.cleanup();
+		if(requestExecutor != null) {
+			requestExecutor.shutdown();
+		}
+		if(sessionExecutor != null) {
+			sessionExecutor.shutdown();
+		}
+	}
+	
+	/**
+	 * Waits for ConnectionPool.init, run in another thread, to return.
+	 * @param connectionPoolInit : the task running ConnectionPool.init.
+	 * @throws IllegalStateException, ClassNotFoundException, SQLException : whatever ConnectionPool.init threw.
+	 */
+	private static void awaitConnectionPool(FutureTask<Void> connectionPoolInit) throws IllegalStateException, ClassNotFoundException, SQLException {
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					connectionPoolInit.get();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true; // The connections are being opened : they must be waited for anyway
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof ClassNotFoundException) {
+						throw (ClassNotFoundException) cause;
+					} else if(cause instanceof SQLException) {
+						throw (SQLException) cause;
+					} else if(cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else {
+						throw (Error) cause;
+					}
+				}
+			}
+		} finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
 	/**
 	 * Cleans up everything properly. </br>
 	 * Must be called before exiting the application. <
@@ -110,21 +300,31 @@ public class Server {
 			state = ServerState.initial;
 		
 		
-		// Terminating all clients
-		for(Session client : clients) {
-			client.exit();
-		}
+		// Terminating all clients still alive
+		SessionRegistry.exitAll();
 		// Waiting for all clients to be properly terminated
-		for(Session client : clients) {
-			try {
-				if(client.isAlive())
-					client.join();
-			} catch (InterruptedException e) {
-				logger.warn("Caught an InterruptedException during ProtocolHandler cleanup", e);
+		sessionExecutor.shutdown();
+		try {
+			if(!sessionExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.warn("Some Sessions were still running after the cleanup timeout.");
 			}
+		} catch (InterruptedException e) {
+			logger.warn("Caught an InterruptedException during ProtocolHandler cleanup", e);
 		}
+		SessionRegistry.cleanup();
+		if(requestExecutor != null) {
+			requestExecutor.shutdown();
+		}
+		// Same thing for the clients of the NIO transport, if it was used
+		SelectorTransport.cleanup();
 		
 		
+		AdmissionLimiter.cleanup();
+		QueryScheduler.cleanup(); // Lets the queries already queued finish
+		CustomerIndex.cleanup();
+		CredentialStore.cleanup();
+		KnownKeys.cleanup();
+		SimulationCache.cleanup();
 		ConnectionPool.cleanup(); // Once all clients are terminated, the connection pool is cleaned up
 		
 		state = ServerState.initial;
@@ -151,9 +351,13 @@ public class Server {
 			try {
 				Socket client = serverSocket.accept(); 
 				logger.info("Connection received");
-				Session handler = new Session(client);
-				clients.add(handler); // For future cleanup
-				handler.start();
+				if(nio) {
+					SelectorTransport.register(client.getChannel());
+				} else {
+					Session handler = new Session(client, requestExecutor, maxInFlight);
+					SessionRegistry.register(handler); // For future cleanup. The Session deregisters itself when it ends.
+					sessionExecutor.execute(handler);
+				}
 			} catch (IOException e) {
 				if(serverSocket.isClosed()) {
 					logger.info("Server shutdown signal received.");
@@ -166,6 +370,37 @@ public class Server {
 		logger.trace("Exiting Server.launch");
 	}
 	
+	/**
+	 * Creates the executor which runs the Sessions.</br>
+	 * In "VIRTUAL" mode, each Session runs on its own virtual thread, so that its blocking reads and JDBC calls park
+	 * cheaply instead of holding a platform thread. Virtual threads need a Java 21+ runtime : they are looked up by reflection
+	 * so that the project still compiles for older ones, and the platform mode is used if they are not available.</br>
+	 * In "PLATFORM" mode (the default), each Session runs on a platform thread, as it always did.
+	 * @param mode : the SESSION_EXECUTION_MODE property.
+	 * @return an executor which runs each submitted Session in its own thread.
+	 */
+	private static ExecutorService createSessionExecutor(String mode) {
+		if(mode.equals("VIRTUAL")) {
+			try {
+				ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				logger.info("Sessions will run on virtual threads.");
+				return executor;
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Virtual threads are not available on this Java runtime. Sessions will run on platform threads instead.", e);
+			}
+		} else if(!mode.equals("PLATFORM")) {
+			logger.warn("Unknown SESSION_EXECUTION_MODE " + mode + ". Sessions will run on platform threads.");
+		}
+		return Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 * @return the number of clients currently connected, whichever the transport.
+	 */
+	public static int getClientCount() {
+		return SessionRegistry.getLiveCount() + SelectorTransport.getConnectionCount();
+	}
+	
 	/**
 	 * Signals the server to cease all operations ASAP.
 	 */
@@ -203,8 +438,31 @@ public class Server {
 		new Thread(new Runnable() {
 			public void run() {
 				Scanner sc = new Scanner(System.in);
-				System.out.println("Press enter to exit");
-				sc.nextLine();
+				System.out.println("Type \"stats\" to display the connection pool and simulation cache metrics, "
+						+ "\"invalidate <sim_id>\" once a simulation changed in the database, \"invalidate\" once several did, "
+						+ "\"invalidate-user <login>\" once a user was created, deleted, or its password or authorization level changed, "
+						+ "\"invalidate-users\" once several did, or press enter to exit");
+				String command;
+				while(!(command = sc.nextLine().trim()).isEmpty()) {
+					if(command.equals("stats")) {
+						System.out.println(ConnectionPoolMetrics.getReport());
+						System.out.println(SimulationCache.getReport());
+						System.out.println("Known keys : " + KnownKeys.getRejected() + " getSims queries with an unknown account and "
+								+ KnownKeys.getRejectedLogins() + " AUTH queries with an unknown login answered without the database");
+					} else if(command.equals("invalidate-users")) {
+						CredentialStore.invalidateAll();
+					} else if(command.startsWith("invalidate-user ")) {
+						String login = command.substring("invalidate-user ".length()).trim();
+						CredentialStore.invalidate(login);
+						KnownKeys.addLogin(login); // In case it is a new user
+					} else if(command.equals("invalidate")) {
+						SimulationCache.invalidateAll();
+					} else if(command.startsWith("invalidate ")) {
+						SimulationCache.invalidate(command.substring("invalidate ".length()).trim());
+					} else {
+						System.out.println("Unknown command : " + command);
+					}
+				}
 				sc.close();
 				exit();
 			}
@@ -1,31 +1,68 @@
 package server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import model.query.AuthenticationQuery;
+import model.query.FramingQuery;
 import model.query.GetAccountsQuery;
 import model.query.GetSimQuery;
 import model.query.GetSimsQuery;
 import model.response.AuthenticationServerResponse;
+import model.response.BatchServerResponse;
+import model.response.BusyServerResponse;
 import model.response.ErrorServerResponse;
+import model.response.FramingServerResponse;
 import model.response.ServerResponse;
 import model.response.UnauthorizedErrorServerResponse;
 
 import org.apache.log4j.Logger;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import util.Compression;
+import util.Framing;
 import util.JsonImpl;
+import util.MessageReader;
+import util.MessageWriter;
+import util.StreamableMessage;
 
 /**
  * This class handles exactly one client, from their connection to their disconnection. </br>
- * The life span of this thread is either the same as the Socket it was given in its constructor's life span,
+ * It is run by the Server's session executor, either on a platform thread or on a virtual thread (see SESSION_EXECUTION_MODE).
+ * The life span of this task is either the same as the Socket it was given in its constructor's life span,
  * or shorter, depending on whether or not an exit signal is received.
- * @version R3 sprint 1 - 13/04/2016
+ * @version R3 sprint 3
  * @author Kappa-V
  * @changes
+ * 		R3 sprint 2 -> R3 sprint 3: </br>
+ * 			-Moved the user_id and authorization_level attributes to ClientState
+ * 			-handleMessage is now static and works on a ClientState, so that SelectorTransport can use it too
+ * 			-implements Runnable instead of extending Thread, so that the Server can choose the executor
+ * 			-messages are read and written through MessageReader and MessageWriter, and the client can negotiate
+ * 			length-prefixed framing with a FRAMING query
+ * 			-queries with a request id are pipelined : treated concurrently by the request executor, and answered with their id
+ * 			-added the BATCH message, whose queries share one connection from the pool
+ * 			-responses are given to the MessageWriter as StreamableMessages, so that big responses can be streamed
+ * 			-the FRAMING query can also negotiate the compression of big LENGTH frames
+ * 			-deregisters itself from the SessionRegistry when it ends, and can be closed by it when idle
+ * 			-queries using the database go through the AdmissionLimiter, and are answered with BUSY when it refuses them
+ * 			-queries are handled by the QueryScheduler, which orders them by priority class
+ * 			-resolves the customers of an advisor on AUTH, and gives its ClientState to handleGetAccountsQuery
+ * 			-closes the connection when a streamed response isn't written within STREAM_WRITE_TIMEOUT of the start of its write
+ * 			-only streams the getSim responses in LINE mode, and holds their admission until they are written
+ * 			-a BATCH has at most BATCH_MAX_SIZE queries, and only acquires a connection for the first one which needs the database
  * 		R3 sprint 1 -> R3 sprint 2: </br>
  * 			-Removed the calls to the deprecated consult, withdrawal, deleteCustomer and newCustomer MessageHandler methods
  * 			-Added the calls to the getAccounts, getSims, and getSim MessageHandler methods instead
@@ -36,12 +73,43 @@ import util.JsonImpl;
  * 			-added the handleMessage method which was previously in the MessageHandler class
  * 			-in handleMessage, added the new Auth method, and re-used prefixEnd's value when calculating the prefix String
  */
-public class Session extends Thread {
+public class Session implements Runnable {
 	/**
 	 * Logger
 	 */
 	private static Logger logger = Logger.getLogger(Session.class);
 	
+	/**
+	 * When a client negotiated compression, the responses of at least this many bytes are compressed.
+	 * Set from the COMPRESSION_THRESHOLD property. Also used by SelectorConnection.
+	 */
+	private static volatile int compressionThreshold = 4096;
+	
+	/**
+	 * A streamed response not written within this many milliseconds closes the connection. 0 : no limit.
+	 * Set from the STREAM_WRITE_TIMEOUT property.
+	 */
+	private static volatile long streamWriteTimeout = 60000;
+	
+	/**
+	 * The most queries in a BATCH. 0 : no maximum. Set from the BATCH_MAX_SIZE property.
+	 */
+	private static volatile int batchMaxSize = 50;
+	
+	/**
+	 * Closes the connections whose streamed response takes too long to write. Shared by every Session.
+	 */
+	private static final ScheduledThreadPoolExecutor writeWatchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "SessionWriteWatchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	static {
+		writeWatchdog.setRemoveOnCancelPolicy(true); // Most writes end in time : their tasks shouldn't pile up
+	}
+	
 	/**
 	 * The socket of this Session's client.
 	 */
@@ -50,28 +118,53 @@ public class Session extends Thread {
 	/**
 	 * This boolean is used to exit the run() method before the client decides to end the session. It is set to false by the exit() method.
 	 */
-	private boolean exit = false;
+	private volatile boolean exit = false;
+	
+	/**
+	 * This client's state : user id and authorization level.
+	 */
+	private final ClientState state = new ClientState();
+	
+	/**
+	 * Runs this client's pipelined queries. Shared by every Session.
+	 */
+	private final Executor requestExecutor;
+	
+	/**
+	 * The maximum number of pipelined queries this client can have in flight at once.
+	 */
+	private final int maxInFlight;
+	
+	/**
+	 * One permit per pipelined query this client can still send before the Session stops reading.
+	 */
+	private final Semaphore inFlight;
 	
 	/**
-	 * User id provided by the client during the authentication phase
+	 * True while the Session is waiting for the client's next message.
 	 */
-	private String user_id = null;
+	private volatile boolean reading = false;
 	
 	/**
-	 * User authorization level as dictated by the database during the authentication phase.
+	 * When the last message was received, or the last response written, as given by System.currentTimeMillis().
 	 */
-	private int authorization_level = 3;
+	private volatile long lastActivity = System.currentTimeMillis();
 	
 	/**
 	 * Main constructor for this class.
 	 * @param client : the client this Session will handle.
+	 * @param requestExecutor : runs the client's pipelined queries.
+	 * @param maxInFlight : the maximum number of pipelined queries the client can have in flight at once.
 	 */
-	public Session(Socket client) {
+	public Session(Socket client, Executor requestExecutor, int maxInFlight) {
 		this.client = client;
+		this.requestExecutor = requestExecutor;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
 	}
 	
 	/**
-	 * Is called in a new thread when you call the start() method from the Thread superclass. Don't actually call this, call start() instead.</br>
+	 * Is called by the Server's session executor. Don't actually call this, submit the Session to the executor instead.</br>
 	 * Handles a session from start to finish.
 	 */
 	@Override
@@ -79,27 +172,70 @@ public class Session extends Thread {
 		logger.trace("Entering Session.run");
 		try {
 			// initialization
-			PrintWriter out = new PrintWriter(client.getOutputStream(), true);
-			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+			MessageWriter out = new MessageWriter(new BufferedOutputStream(client.getOutputStream()));
+			MessageReader in = new MessageReader(new BufferedInputStream(client.getInputStream()));
+			state.setStreamable(true); // Until the client negotiates LENGTH framing, whose frames need the whole response first
+			boolean firstMessage = true;
 			
 			// Main loop
 			while (!client.isClosed() && !exit) {
 				// Read query
-				String clientMessage = "";
-				do {
-					clientMessage += in.readLine(); // Reading the client's query
-				} while (in.ready()); // This loop makes it possible to receive 2+ lines long messages (useful in the case of pretty printed JSON)
+				reading = true;
+				String clientMessage = in.read();
+				reading = false;
+				lastActivity = System.currentTimeMillis();
+				if(clientMessage == null) { // The client left without saying "BYE"
+					client.close();
+					break;
+				}
+				
+				// Framing negotiation
+				if(firstMessage && clientMessage.startsWith("FRAMING ")) {
+					firstMessage = false;
+					ServerResponse framingResponse = handleFramingMessage(clientMessage);
+					out.write(framingResponse.toString()); // Written in the old mode : the client switches once it has read it
+					if(framingResponse instanceof FramingServerResponse) {
+						FramingServerResponse framing = (FramingServerResponse) framingResponse;
+						in.setFraming(framing.getMode());
+						out.setFraming(framing.getMode());
+						state.setStreamable(framing.getMode() == Framing.LINE);
+						if(framing.getCompression() == Compression.DEFLATE) {
+							in.setCompression(true);
+							out.setCompressionThreshold(compressionThreshold);
+						}
+					}
+					continue;
+				}
+				firstMessage = false;
+				
+				// Pipelined query : treated concurrently, and answered as soon as it's done
+				String requestId = getRequestId(clientMessage);
+				if(requestId != null) {
+					String body = removeRequestId(clientMessage);
+					if(!body.equals("BYE")) {
+						inFlight.acquireUninterruptibly(); // Stops reading if this client already has too many queries in flight
+						requestExecutor.execute(new PipelinedRequest(requestId, body, out));
+						continue;
+					}
+					clientMessage = body;
+				}
 				
 				// Treat query
-				ServerResponse serverResponse = handleMessage(clientMessage);
+				ServerResponse serverResponse = handleMessage(clientMessage, state);
 				
 				// Response
 				if(!client.isClosed()) {
 					if(serverResponse == null) { // handleMessage returns null if clientMessage.equals("BYE")
+						// Lets the pipelined queries finish, so that their responses aren't lost
+						inFlight.acquireUninterruptibly(maxInFlight);
+						inFlight.release(maxInFlight);
 						client.close();
 					} else {
-						out.println(serverResponse.toString());
+						writeResponse(out, null, serverResponse); // Streamed responses are written as they are built
+						lastActivity = System.currentTimeMillis();
 					}
+				} else {
+					discard(serverResponse);
 				}
 			}
 		} catch (IOException e) {
@@ -113,11 +249,190 @@ public class Session extends Thread {
 					logger.warn("Exception caught while attempting to close a socket", e1);
 				}
 			}
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			SessionRegistry.deregister(this);
 		}
 		logger.info("Connection terminated");
 		logger.trace("Exiting Session.run");
 	}
 	
+	/**
+	 * Treats one pipelined query, and answers it with its request id.
+	 */
+	private class PipelinedRequest implements Runnable {
+		private final String requestId;
+		private final String message;
+		private final MessageWriter out;
+		
+		public PipelinedRequest(String requestId, String message, MessageWriter out) {
+			this.requestId = requestId;
+			this.message = message;
+			this.out = out;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				ServerResponse serverResponse = handleMessage(message, state);
+				if(!client.isClosed()) {
+					writeResponse(out, tagResponse(requestId, ""), serverResponse);
+					lastActivity = System.currentTimeMillis();
+				} else {
+					discard(serverResponse);
+				}
+			} catch (IOException e) {
+				logger.info("Couldn't answer pipelined query " + requestId + " : " + e.getMessage());
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a response. A streamed response holds a connection from the pool while it is being written : if it isn't
+	 * written within STREAM_WRITE_TIMEOUT, because the client doesn't read it, the socket is closed. The write then fails,
+	 * and the connection goes back to the pool. The time spent waiting for the MessageWriter, while another response of
+	 * this client is written, doesn't count.
+	 * @param out : the client's MessageWriter.
+	 * @param head : written right before the response, in the same message. Can be null.
+	 * @param response : the response.
+	 * @throws IOException : if the response can't be written, or took too long to.
+	 */
+	private void writeResponse(MessageWriter out, String head, ServerResponse response) throws IOException {
+		long timeout = streamWriteTimeout;
+		if(!(response instanceof StreamedGetSimResponse) || timeout <= 0) {
+			out.write(head, response);
+			return;
+		}
+		
+		WatchedResponse watched = new WatchedResponse(response, timeout);
+		try {
+			out.write(head, watched);
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			watched.stopWatching();
+			discard(response); // If the write failed before the response was reached
+		}
+	}
+	
+	/**
+	 * A response whose write is watched by the writeWatchdog. The watch starts when the MessageWriter starts writing it,
+	 * and stops once the caller's write returns, after the flush.
+	 */
+	private class WatchedResponse implements StreamableMessage {
+		private final StreamableMessage response;
+		private final long timeout;
+		private volatile ScheduledFuture<?> watchdog;
+		
+		WatchedResponse(StreamableMessage response, long timeout) {
+			this.response = response;
+			this.timeout = timeout;
+		}
+		
+		@Override
+		public void writeTo(Writer writer) throws IOException {
+			watchdog = writeWatchdog.schedule(new Runnable() {
+				public void run() {
+					logger.info("Closing a connection whose streamed response wasn't written within " + timeout + " ms.");
+					try {
+						client.close();
+					} catch (IOException e) {
+						logger.warn("Exception caught while attempting to close a socket", e);
+					}
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+			response.writeTo(writer);
+		}
+		
+		void stopWatching() {
+			ScheduledFuture<?> current = watchdog;
+			if(current != null) {
+				current.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Drops a response which won't be written, or is done being written. A streamed response gives its admission back.
+	 */
+	private static void discard(ServerResponse response) {
+		if(response instanceof StreamedGetSimResponse) {
+			((StreamedGetSimResponse) response).releaseAdmission();
+		}
+	}
+	
+	static int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param compressionThreshold : the COMPRESSION_THRESHOLD property.
+	 */
+	static void setCompressionThreshold(int compressionThreshold) {
+		Session.compressionThreshold = compressionThreshold;
+	}
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param batchMaxSize : the BATCH_MAX_SIZE property.
+	 */
+	static void setBatchMaxSize(int batchMaxSize) {
+		Session.batchMaxSize = batchMaxSize;
+	}
+	
+	/**
+	 * Called by Server.initAll.
+	 * @param streamWriteTimeout : the STREAM_WRITE_TIMEOUT property.
+	 */
+	static void setStreamWriteTimeout(long streamWriteTimeout) {
+		Session.streamWriteTimeout = streamWriteTimeout;
+	}
+	
+	/**
+	 * Pipelined queries start with this character, immediately followed by the request id and a space.
+	 */
+	static final char REQUEST_ID_MARKER = '#';
+	
+	/**
+	 * @param message : a message received from the socket
+	 * @return the message's request id, or null if the client is not pipelining this query.
+	 */
+	static String getRequestId(String message) {
+		int idEnd = message.indexOf(' ');
+		if(message.isEmpty() || message.charAt(0) != REQUEST_ID_MARKER || idEnd == -1) {
+			return null;
+		}
+		return message.substring(1, idEnd);
+	}
+	
+	/**
+	 * @param message : a message which has a request id
+	 * @return the same message, without its request id.
+	 */
+	static String removeRequestId(String message) {
+		return message.substring(message.indexOf(' ') + 1);
+	}
+	
+	/**
+	 * @param requestId : the request id of the query
+	 * @param response : the server's response to the query
+	 * @return the response, tagged with the query's request id.
+	 */
+	static String tagResponse(String requestId, String response) {
+		return REQUEST_ID_MARKER + requestId + " " + response;
+	}
+	
+	/**
+	 * Used by the SessionRegistry to find the idle Sessions.
+	 * @param deadline : as given by System.currentTimeMillis()
+	 * @return true if this Session has been waiting for a message since before the deadline, with no pipelined query in flight.
+	 */
+	boolean isIdleSince(long deadline) {
+		return reading && lastActivity < deadline && inFlight.availablePermits() == maxInFlight;
+	}
+	
 	public void exit() {
 		logger.trace("Entering Session.exit");
 		exit = true;
@@ -129,19 +444,50 @@ public class Session extends Thread {
 		logger.trace("Exiting Session.exit");
 	}
 	
+	/**
+	 * Handles a FRAMING query. It is only accepted as the very first message of a connection : the transport
+	 * intercepts it, and switches its framing mode once the response is written.
+	 * @param message : the message received from the socket, starting with "FRAMING "
+	 * @return a FramingServerResponse containing the new mode, or an ErrorServerResponse.
+	 */
+	static ServerResponse handleFramingMessage(String message) {
+		logger.trace("Entering Session.handleFramingMessage");
+		try {
+			FramingQuery framingQuery = JsonImpl.fromJson(message.substring(message.indexOf(' ') + 1), FramingQuery.class);
+			if(framingQuery == null || framingQuery.getMode() == null) {
+				logger.trace("Exiting Session.handleFramingMessage");
+				return new ErrorServerResponse("Unknown framing mode");
+			}
+			Compression compression = framingQuery.getCompression() == null ? Compression.NONE : framingQuery.getCompression();
+			if(compression != Compression.NONE && framingQuery.getMode() != Framing.LENGTH) {
+				logger.trace("Exiting Session.handleFramingMessage");
+				return new ErrorServerResponse("Compression needs LENGTH framing");
+			}
+			logger.trace("Exiting Session.handleFramingMessage");
+			return new FramingServerResponse(framingQuery.getMode(), compression);
+		} catch(Exception e) {
+			logger.trace("Exiting Session.handleFramingMessage");
+			logger.debug("Unknown format error. Message was : " + message);
+			return new ErrorServerResponse("Unknown format error");
+		}
+	}
+	
 	/**
 	 * Analyses the message, and dispatches its handling to the correct method from the MessageHandler static methods.
 	 * @param message : the message received from the socket, as is, without any prior treatment
+	 * @param state : the state of the client who sent the message. Updated on successful authentication.
 	 * @return : null if the client said "BYE", in which case the protocol handler must be terminated. Else, the response will be returned.
 	 */
-	private ServerResponse handleMessage(String message) {
+	static ServerResponse handleMessage(String message, final ClientState state) {
 		logger.trace("Entering Session.handleMessage");
 		if(message.equals("BYE")) {
 			logger.trace("Exiting Session.handleMessage. Message was \"BYE\"");
-			logger.info(this.user_id + " logged out successfully.");
+			logger.info(state.getUser_id() + " logged out successfully.");
 			return null;
 		}
 		
+		boolean admitted = false; // Set once the query is admitted by the AdmissionLimiter
+		TimedQuery scheduled = null;
 		try {
 			int prefixEnd = message.indexOf(' ');
 			
@@ -151,53 +497,199 @@ public class Session extends Thread {
 				return new ErrorServerResponse("Invalid prefix");
 			}
 			
-			String prefix = message.substring(0, prefixEnd);
-			String content = message.substring(prefixEnd + 1);
+			final String prefix = message.substring(0, prefixEnd);
+			final String content = message.substring(prefixEnd + 1);
 			
+			// Admission : queries using the database are refused right away if it is already too busy
+			if(usesDatabase(prefix)) {
+				if(!AdmissionLimiter.tryAcquire()) {
+					logger.trace("Exiting Session.handleMessage");
+					logger.debug("Query refused by the AdmissionLimiter : " + prefix);
+					return new BusyServerResponse("Server busy. Please retry later.");
+				}
+				admitted = true;
+			}
+			
+			// Scheduling : the queries using the database wait for their turn in their priority class
 			ServerResponse response;
-			switch(prefix) {
-			case "AUTH":
-				AuthenticationQuery authQuery = JsonImpl.fromJson(content, AuthenticationQuery.class);
-				response = MessageHandler.handleAuthQuery(authQuery);
-				if(response instanceof AuthenticationServerResponse) { // response can also be ErrorServerResponse if the database can't be reached.
-					AuthenticationServerResponse authResponse = (AuthenticationServerResponse) response;
-					if(authResponse.getStatus().equals(AuthenticationServerResponse.Status.OK)) {
-						this.authorization_level = authResponse.getYour_authorization_level();
-						this.user_id = authQuery.getId();
-						logger.info(this.user_id + " logged in successfully.");
+			if(!admitted) {
+				response = dispatchMessage(prefix, content, state);
+			} else {
+				scheduled = new TimedQuery() {
+					protected ServerResponse handle() throws Exception {
+						return dispatchMessage(prefix, content, state);
+					}
+				};
+				response = QueryScheduler.schedule(QueryScheduler.getPriorityClass(prefix, state.getAuthorization_level()), scheduled);
+				if(response instanceof StreamedGetSimResponse) {
+					// Its repayments are fetched while it is written : it keeps the admission until then
+					((StreamedGetSimResponse) response).holdAdmission(scheduled.getHandlingTime());
+					admitted = false;
+				}
+			}
+			
+			logger.trace("Exiting Session.handleMessage");
+			return response;
+		} catch(Exception e) {
+			logger.trace("Exiting Session.handleMessage");
+			logger.debug("Unknown format error. Message was : " + message);
+			return new ErrorServerResponse("Unknown format error");
+		} finally {
+			if(admitted) {
+				// The time spent in the QueryScheduler's queue is not the database's
+				AdmissionLimiter.release(scheduled == null ? -1 : scheduled.getHandlingTime());
+			}
+		}
+	}
+	
+	/**
+	 * Dispatches a message's handling to the correct method from the MessageHandler static methods.
+	 * Runs in one of the QueryScheduler's threads if the message uses the database.
+	 * @param prefix : the message's prefix
+	 * @param content : the message, without its prefix
+	 * @param state : the state of the client who sent the message. Updated on successful authentication.
+	 * @return the response. Never null.
+	 * @throws Exception : if the content is ill-formatted.
+	 */
+	private static ServerResponse dispatchMessage(String prefix, String content, ClientState state) throws Exception {
+		ServerResponse response;
+		switch(prefix) {
+		case "AUTH":
+			AuthenticationQuery authQuery = JsonImpl.fromJson(content, AuthenticationQuery.class);
+			response = MessageHandler.handleAuthQuery(authQuery);
+			if(response instanceof AuthenticationServerResponse) { // response can also be ErrorServerResponse if the database can't be reached.
+				AuthenticationServerResponse authResponse = (AuthenticationServerResponse) response;
+				if(authResponse.getStatus().equals(AuthenticationServerResponse.Status.OK)) {
+					state.setAuthorization_level(authResponse.getYour_authorization_level());
+					state.setUser_id(authQuery.getId());
+					if(state.getAuthorization_level() >= 2) {
+						state.getMyCustomers(); // Resolved once, from the CustomerIndex : their myCustomers searches won't have to
 					}
+					logger.info(state.getUser_id() + " logged in successfully.");
 				}
-				break;
+			}
+			break;
+		case "getAccounts":
+			if(state.getAuthorization_level() < 2) {
+				return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 2);
+			}
+			GetAccountsQuery getAccountsQuery = JsonImpl.fromJson(content, GetAccountsQuery.class);
+			response = MessageHandler.handleGetAccountsQuery(getAccountsQuery, state);
+			break;
+		case "getSims":
+			if(state.getAuthorization_level() < 1) {
+				return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 1);
+			}
+			GetSimsQuery getSimsQuery = JsonImpl.fromJson(content, GetSimsQuery.class);
+			response = MessageHandler.handleGetSimsQuery(getSimsQuery);
+			break;
+		case "getSim":
+			if(state.getAuthorization_level() < 1) {
+				return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 1);
+			}
+			GetSimQuery getSimQuery = JsonImpl.fromJson(content, GetSimQuery.class);
+			response = MessageHandler.handleGetSimQuery(getSimQuery, state.isStreamable());
+			break;
+		case "BATCH":
+			response = handleBatch(content, state);
+			break;
+		case "FRAMING":
+			response = new ErrorServerResponse("FRAMING must be the first message");
+			break;
+		default:
+			response = new ErrorServerResponse("Unknown prefix");
+		}
+		return response;
+	}
+	
+	/**
+	 * @param prefix : a message's prefix
+	 * @return true if handling the message uses the database, and must be admitted by the AdmissionLimiter first.
+	 */
+	private static boolean usesDatabase(String prefix) {
+		switch(prefix) {
+		case "AUTH":
+		case "getAccounts":
+		case "getSims":
+		case "getSim":
+		case "BATCH":
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Handles a BATCH message : a JSON array of queries, each of which has a "prefix" attribute in addition to its usual ones.</br>
+	 * The queries are treated in order. Those which can't be answered from memory share a single connection from the pool,
+	 * acquired for the first of them. Each one is checked against the client's authorization level on its own.
+	 * @param content : the message without its "BATCH " prefix
+	 * @param state : the state of the client who sent the message.
+	 * @return a BatchServerResponse containing one response per query, in the same order, 
+	 * or an ErrorServerResponse if there are more than BATCH_MAX_SIZE queries.
+	 * @throws JsonParseException : if content is not a JSON array.
+	 */
+	private static ServerResponse handleBatch(String content, ClientState state) {
+		logger.trace("Entering Session.handleBatch");
+		JsonArray queries = JsonImpl.parse(content).getAsJsonArray();
+		
+		int maxSize = batchMaxSize;
+		if(maxSize > 0 && queries.size() > maxSize) {
+			logger.trace("Exiting Session.handleBatch");
+			logger.debug("Batch refused : " + queries.size() + " queries");
+			return new ErrorServerResponse("Batch too big : at most " + maxSize + " queries");
+		}
+		
+		LazyConnection databaseConnection = new LazyConnection();
+		try {
+			BatchServerResponse response = new BatchServerResponse();
+			for(JsonElement query : queries) {
+				response.addResponse(handleBatchedQuery(query, state, databaseConnection));
+			}
+			logger.trace("Exiting Session.handleBatch");
+			return response;
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			databaseConnection.release();
+		}
+	}
+	
+	/**
+	 * Handles one of the queries of a BATCH message. Only getAccounts, getSims and getSim can be batched.
+	 * @param query : the query, including its "prefix" attribute
+	 * @param state : the state of the client who sent the message.
+	 * @param databaseConnection : the connection shared by the whole batch, acquired by the first query which needs it.
+	 * @return the response to this query. Never null nor an exception.
+	 */
+	private static ServerResponse handleBatchedQuery(JsonElement query, ClientState state, LazyConnection databaseConnection) {
+		try {
+			JsonObject queryObject = query.getAsJsonObject();
+			JsonElement prefixElement = queryObject.remove("prefix");
+			if(prefixElement == null) {
+				return new ErrorServerResponse("Invalid prefix");
+			}
+			
+			switch(prefixElement.getAsString()) {
 			case "getAccounts":
-				if(authorization_level < 2) {
-					return new UnauthorizedErrorServerResponse((this.user_id==null), this.authorization_level, 2);
+				if(state.getAuthorization_level() < 2) {
+					return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 2);
 				}
-				GetAccountsQuery getAccountsQuery = JsonImpl.fromJson(content, GetAccountsQuery.class);
-				response = MessageHandler.handleGetAccountsQuery(getAccountsQuery, this.user_id);
-				break;
+				return MessageHandler.handleGetAccountsQuery(JsonImpl.fromJson(queryObject, GetAccountsQuery.class), state, databaseConnection);
 			case "getSims":
-				if(authorization_level < 1) {
-					return new UnauthorizedErrorServerResponse((this.user_id == null), this.authorization_level, 1);
+				if(state.getAuthorization_level() < 1) {
+					return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 1);
 				}
-				GetSimsQuery getSimsQuery = JsonImpl.fromJson(content, GetSimsQuery.class);
-				response = MessageHandler.handleGetSimsQuery(getSimsQuery);
-				break;
+				return MessageHandler.handleGetSimsQuery(JsonImpl.fromJson(queryObject, GetSimsQuery.class), databaseConnection);
 			case "getSim":
-				if(authorization_level < 1) {
-					return new UnauthorizedErrorServerResponse((this.user_id == null), this.authorization_level, 1);
+				if(state.getAuthorization_level() < 1) {
+					return new UnauthorizedErrorServerResponse((state.getUser_id() == null), state.getAuthorization_level(), 1);
 				}
-				GetSimQuery getSimQuery = JsonImpl.fromJson(content, GetSimQuery.class);
-				response = MessageHandler.handleGetSimQuery(getSimQuery);
-				break;
+				return MessageHandler.handleGetSimQuery(JsonImpl.fromJson(queryObject, GetSimQuery.class), databaseConnection);
 			default:
-				response = new ErrorServerResponse("Unknown prefix");
+				return new ErrorServerResponse("Unknown prefix");
 			}
-			
-			logger.trace("Exiting Session.handleMessage");
-			return response;
 		} catch(Exception e) {
-			logger.trace("Exiting Session.handleMessage");
-			logger.debug("Unknown format error. Message was : " + message);
+			logger.debug("Unknown format error. Batched query was : " + query);
 			return new ErrorServerResponse("Unknown format error");
 		}
 	}
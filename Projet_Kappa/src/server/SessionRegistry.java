@@ -0,0 +1,179 @@
+package server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps track of the live Sessions of the blocking transport.</br>
+ * Sessions are registered by the Server when they are accepted, and deregister themselves when they end, so that
+ * the registry only ever holds live Sessions. If an idle timeout is set, a background thread regularly closes
+ * the Sessions which have been waiting for a message for longer than that.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class SessionRegistry {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(SessionRegistry.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate SessionRegistry
+	 */
+	private SessionRegistry() {}
+	
+	/**
+	 * Status attribute. All methods in this implementation can throw IllegalStateExceptions.
+	 */
+	private static SessionRegistryState state = SessionRegistryState.initial;
+	
+	/**
+	 * The live Sessions.
+	 */
+	private static volatile Set<Session> sessions;
+	
+	/**
+	 * Closes the idle Sessions. Null if there is no idle timeout.
+	 */
+	private static ScheduledExecutorService reaper;
+	
+	/**
+	 * In milliseconds. 0 means Sessions are never closed for being idle.
+	 */
+	private static long idleTimeout;
+	
+	
+	
+	
+	/**
+	 * Must be called first.
+	 * @param idleTimeout : the time, in milliseconds, after which a Session waiting for a message is closed. 0 to disable.
+	 * @throws IllegalStateException : if SessionRegistry was already initialized.
+	 */
+	public static synchronized void init(long idleTimeout) throws IllegalStateException {
+		logger.trace("Entering SessionRegistry.init");
+		
+		if(state == SessionRegistryState.ready) {
+			logger.trace("Exiting SessionRegistry.init with an IllegalStateException");
+			throw new IllegalStateException("SessionRegistry init - already initialized");
+		}
+		
+		sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+		SessionRegistry.idleTimeout = idleTimeout;
+		if(idleTimeout > 0) {
+			reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SessionReaper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			// Checking 4 times per timeout : an idle Session is closed at most 25% later than it should be
+			long period = Math.max(1000, idleTimeout / 4);
+			reaper.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					closeIdleSessions();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+		
+		state = SessionRegistryState.ready;
+		logger.trace("Exiting SessionRegistry.init");
+	}
+	
+	/**
+	 * Adds a Session to the registry. Called before the Session is started.
+	 * @param session : the new Session
+	 * @throws IllegalStateException : if SessionRegistry is not yet initialized, or already cleaned up
+	 */
+	public static void register(Session session) throws IllegalStateException {
+		if(state != SessionRegistryState.ready) {
+			throw new IllegalStateException("SessionRegistry register - not yet initialized, or already cleaned up");
+		}
+		sessions.add(session);
+	}
+	
+	/**
+	 * Removes a Session from the registry. Called by the Session when it ends. Does nothing after cleanup.
+	 * @param session : the ended Session
+	 */
+	public static void deregister(Session session) {
+		Set<Session> sessions = SessionRegistry.sessions;
+		if(sessions != null) {
+			sessions.remove(session);
+		}
+	}
+	
+	/**
+	 * @return the number of live Sessions.
+	 */
+	public static int getLiveCount() {
+		Set<Session> sessions = SessionRegistry.sessions;
+		return sessions == null ? 0 : sessions.size();
+	}
+	
+	/**
+	 * Signals every live Session to exit.
+	 */
+	public static void exitAll() {
+		logger.trace("Entering SessionRegistry.exitAll");
+		Set<Session> sessions = SessionRegistry.sessions;
+		if(sessions != null) {
+			for(Session session : sessions) {
+				session.exit();
+			}
+		}
+		logger.trace("Exiting SessionRegistry.exitAll");
+	}
+	
+	/**
+	 * Closes the Sessions which have been waiting for a message for longer than the idle timeout.
+	 */
+	private static void closeIdleSessions() {
+		Set<Session> sessions = SessionRegistry.sessions;
+		if(sessions == null) {
+			return; // Already cleaned up
+		}
+		long deadline = System.currentTimeMillis() - idleTimeout;
+		for(Session session : sessions) {
+			if(session.isIdleSince(deadline)) {
+				logger.info("Closing a Session idle for more than " + idleTimeout + " ms.");
+				session.exit();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the idle Session checks, and forgets every Session. Should be called once every Session was signaled to exit.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering SessionRegistry.cleanup");
+		
+		if(state == SessionRegistryState.initial) {
+			logger.trace("Exiting SessionRegistry.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = SessionRegistryState.initial;
+		
+		if(reaper != null) {
+			reaper.shutdownNow();
+			reaper = null;
+		}
+		sessions = null;
+		
+		logger.trace("Exiting SessionRegistry.cleanup");
+	}
+}
+
+enum SessionRegistryState {
+	initial,
+	ready
+}
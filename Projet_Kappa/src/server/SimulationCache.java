@@ -0,0 +1,271 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.response.GetSimServerResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A read-through cache of the getSim responses, by simulation id, so that a simulation opened again is answered from memory.</br>
+ * It holds at most SIM_CACHE_SIZE responses : the least recently used one is evicted to make room for a new one.
+ * The cached responses are shared by every Session, and must not be modified once they are put.</br>
+ * The database is not watched : a response expires SIM_CACHE_TTL after it was loaded, so that a changed loan, or changed
+ * events, are seen at most that late. Whoever changes a loan can call invalidate() with its id, or invalidateAll(), for them
+ * to be seen right away. Typing "invalidate" in the server's console does it too.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class SimulationCache {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(SimulationCache.class);
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate SimulationCache
+	 */
+	private SimulationCache() {}
+	
+	/**
+	 * The cached responses, from the least recently used to the most recently used. Guarded by itself.
+	 */
+	private static LinkedHashMap<String, CachedSimulation> responses;
+	
+	/**
+	 * How long a response stays fresh, in nanoseconds. 0 : until it is evicted or invalidated.
+	 */
+	private static volatile long timeToLive;
+	
+	/**
+	 * Incremented by every invalidation. A response loaded before an invalidation is not put : it may be stale already.
+	 */
+	private static final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * Metrics
+	 */
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static final AtomicLong expirations = new AtomicLong();
+	private static final AtomicLong invalidations = new AtomicLong();
+	
+	/**
+	 * Current state of the SimulationCache. Volatile : read without any lock.
+	 */
+	private static volatile SimulationCacheState state = SimulationCacheState.initial;
+	
+	
+	
+	
+	/**
+	 * @param maxSize : the most responses held in memory.
+	 * @param timeToLive : how long a response is answered from memory, in milliseconds. 0 : until it is evicted or invalidated.
+	 * @throws IllegalStateException : if SimulationCache was already initialized.
+	 */
+	public static synchronized void init(final int maxSize, long timeToLive) throws IllegalStateException {
+		logger.trace("Entering SimulationCache.init");
+		
+		if(state == SimulationCacheState.ready) {
+			logger.trace("Exiting SimulationCache.init with an IllegalStateException");
+			throw new IllegalStateException("SimulationCache init - already initialized");
+		}
+		
+		responses = new LinkedHashMap<String, CachedSimulation>(16, 0.75f, true) { // Access order : get() moves the entry to the end
+			private static final long serialVersionUID = 1L;
+			
+			protected boolean removeEldestEntry(Map.Entry<String, CachedSimulation> eldest) {
+				if(size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		SimulationCache.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		expirations.set(0);
+		invalidations.set(0);
+		state = SimulationCacheState.ready;
+		
+		logger.trace("Exiting SimulationCache.init");
+	}
+	
+	/**
+	 * Empties the cache.
+	 */
+	public static synchronized void cleanup() {
+		logger.trace("Entering SimulationCache.cleanup");
+		
+		if(state == SimulationCacheState.initial) {
+			logger.trace("Exiting SimulationCache.cleanup with no treatment needed");
+			return;
+		} else
+			// Changing the state before actually going through with the cleanup stops other methods from doing unsafe operations.
+			state = SimulationCacheState.initial;
+		
+		synchronized(responses) {
+			responses.clear();
+		}
+		generation.incrementAndGet();
+		
+		logger.trace("Exiting SimulationCache.cleanup");
+	}
+	
+	/**
+	 * @param sim_id : the id of the simulation.
+	 * @return its cached response, or null if it must be loaded from the database : it isn't cached, or it expired.
+	 * Always null if the cache is not initialized.
+	 */
+	public static GetSimServerResponse get(String sim_id) {
+		if(state != SimulationCacheState.ready || sim_id == null) {
+			return null;
+		}
+		CachedSimulation cached;
+		synchronized(responses) {
+			cached = responses.get(sim_id);
+			if(cached != null && timeToLive > 0 && System.nanoTime() - cached.loadTime > timeToLive) {
+				responses.remove(sim_id);
+				expirations.incrementAndGet();
+				cached = null;
+			}
+		}
+		if(cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return cached.response;
+	}
+	
+	/**
+	 * To be called before loading a response from the database, and given to put() along with it.
+	 * @return the current generation of the cache.
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	
+	/**
+	 * Caches a response loaded from the database, unless the cache was invalidated while it was being loaded.
+	 * The responses of unknown simulations (without an id) are not cached.
+	 * @param response : the response, which must not be modified afterwards.
+	 * @param loadGeneration : what getGeneration() returned before the response was loaded.
+	 * @param loadTime : the System.nanoTime() before the response was loaded. It expires SIM_CACHE_TTL after that.
+	 */
+	public static void put(GetSimServerResponse response, long loadGeneration, long loadTime) {
+		if(state != SimulationCacheState.ready || response.getId() == null) {
+			return;
+		}
+		synchronized(responses) {
+			// Checked under the lock : an invalidation can't happen between the check and the put
+			if(generation.get() == loadGeneration) {
+				responses.put(response.getId(), new CachedSimulation(response, loadTime));
+			}
+		}
+	}
+	
+	/**
+	 * Removes a simulation from the cache. To be called when the loan, or one of its events, changes.
+	 * @param sim_id : the id of the simulation.
+	 */
+	public static void invalidate(String sim_id) {
+		if(state != SimulationCacheState.ready) {
+			return;
+		}
+		synchronized(responses) {
+			generation.incrementAndGet();
+			responses.remove(sim_id);
+		}
+		invalidations.incrementAndGet();
+		logger.info("SimulationCache : " + sim_id + " invalidated.");
+	}
+	
+	/**
+	 * Empties the cache. To be called when several loans changed, or when it is unknown which ones did.
+	 */
+	public static void invalidateAll() {
+		if(state != SimulationCacheState.ready) {
+			return;
+		}
+		synchronized(responses) {
+			generation.incrementAndGet();
+			responses.clear();
+		}
+		invalidations.incrementAndGet();
+		logger.info("SimulationCache : every simulation invalidated.");
+	}
+	
+	/**
+	 * @return the number of cached responses.
+	 */
+	public static int size() {
+		if(state != SimulationCacheState.ready) {
+			return 0;
+		}
+		synchronized(responses) {
+			return responses.size();
+		}
+	}
+	
+	public static long getHits() {
+		return hits.get();
+	}
+	
+	public static long getMisses() {
+		return misses.get();
+	}
+	
+	public static long getEvictions() {
+		return evictions.get();
+	}
+	
+	public static long getExpirations() {
+		return expirations.get();
+	}
+	
+	public static long getInvalidations() {
+		return invalidations.get();
+	}
+	
+	/**
+	 * @return a human-readable summary of the metrics.
+	 */
+	public static String getReport() {
+		if(state != SimulationCacheState.ready) {
+			return "Simulation cache : disabled";
+		}
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return "Simulation cache : " + size() + " simulations, " + hitCount + " hits out of " + total + " lookups"
+				+ (total > 0 ? " (" + (100 * hitCount / total) + "%)" : "") + ", "
+				+ evictions.get() + " evictions, " + expirations.get() + " expirations, " + invalidations.get() + " invalidations";
+	}
+}
+
+enum SimulationCacheState {
+	initial,
+	ready
+}
+
+/**
+ * A response of the SimulationCache, with the time it was loaded at.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class CachedSimulation {
+	final GetSimServerResponse response;
+	final long loadTime;
+	
+	CachedSimulation(GetSimServerResponse response, long loadTime) {
+		this.response = response;
+		this.loadTime = loadTime;
+	}
+}
@@ -0,0 +1,201 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The database the ConnectionPool connects to, chosen with the DB_BACKEND property.</br>
+ * ORACLE is the production database, reached through the JDBC properties. EMBEDDED is an in-process SQL database,
+ * created on launch from portable versions of Kappa_BD.sql and BD update.sql (see the sql directory) : it makes it possible
+ * to run and benchmark the whole server without Oracle, nor a network. Its JDBC driver (H2 by default) must be on the classpath.</br>
+ * The queries of MessageHandler are the same for both backends.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public abstract class StorageBackend {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(StorageBackend.class);
+	
+	/**
+	 * @param prop : the server properties.
+	 * @return the backend selected by DB_BACKEND. Oracle if it is unknown.
+	 */
+	public static StorageBackend fromProperties(Properties prop) {
+		String name = prop.getProperty("DB_BACKEND", "ORACLE");
+		if(name.equals("EMBEDDED")) {
+			logger.info("The server uses the embedded database.");
+			return new EmbeddedBackend(prop);
+		} else if(!name.equals("ORACLE")) {
+			logger.warn("Unknown DB_BACKEND " + name + ". The server will use Oracle.");
+		}
+		return new OracleBackend(prop);
+	}
+	
+	/**
+	 * @return the class name of the JDBC driver, loaded by ConnectionPool.init.
+	 */
+	public abstract String getDriverName();
+	
+	/**
+	 * Opens a new JDBC connection to the database. The ConnectionPool configures it.
+	 * @throws SQLException : if the database can't be connected to.
+	 */
+	public abstract Connection connect() throws SQLException;
+	
+	/**
+	 * Prepares the database, before the ConnectionPool opens its connections. Called once, by ConnectionPool.init.
+	 * @throws SQLException : if the database can't be prepared.
+	 */
+	public abstract void initialize() throws SQLException;
+}
+
+/**
+ * The production database. Its schema is managed outside of the server.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class OracleBackend extends StorageBackend {
+	private final String driverName;
+	private final String url;
+	private final String login;
+	private final String password;
+	
+	public OracleBackend(Properties prop) {
+		driverName = prop.getProperty("DB_DRIVER_NAME");
+		url = prop.getProperty("DB_URL");
+		login = prop.getProperty("DB_CONNECTION_LOGIN");
+		password = prop.getProperty("DB_CONNECTION_PASSWORD");
+	}
+	
+	public String getDriverName() {
+		return driverName;
+	}
+	
+	public Connection connect() throws SQLException {
+		return DriverManager.getConnection(url, login, password);
+	}
+	
+	public void initialize() {
+		// Nothing to do : the schema and the data are already there
+	}
+}
+
+/**
+ * An in-process database, created by running the DB_EMBEDDED_SCRIPTS the first time the server connects to it.
+ * With the default in-memory URL, it lives as long as the server's JVM.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+class EmbeddedBackend extends StorageBackend {
+	/**
+	 * Logger
+	 */
+	private static Logger logger = Logger.getLogger(EmbeddedBackend.class);
+	
+	private final String driverName;
+	private final String url;
+	private final String[] scripts;
+	
+	/**
+	 * Drops everything the scripts created. Run when they fail : their CREATE statements can't be rolled back.
+	 */
+	private final String dropSql;
+	
+	public EmbeddedBackend(Properties prop) {
+		driverName = prop.getProperty("DB_EMBEDDED_DRIVER_NAME", "org.h2.Driver");
+		// DB_CLOSE_DELAY=-1 : the in-memory database isn't dropped when the pool closes its last connection
+		url = prop.getProperty("DB_EMBEDDED_URL", "jdbc:h2:mem:kappa;MODE=Oracle;DB_CLOSE_DELAY=-1");
+		scripts = prop.getProperty("DB_EMBEDDED_SCRIPTS", "sql/Kappa_BD embedded.sql,sql/BD population embedded.sql").split(",");
+		dropSql = prop.getProperty("DB_EMBEDDED_DROP_SQL", "DROP ALL OBJECTS");
+	}
+	
+	public String getDriverName() {
+		return driverName;
+	}
+	
+	public Connection connect() throws SQLException {
+		return DriverManager.getConnection(url);
+	}
+	
+	/**
+	 * Runs the scripts, unless the USERS table already exists : a database on disk is only created once.</br>
+	 * If a script fails, the inserts are rolled back, and the tables are dropped with DB_EMBEDDED_DROP_SQL, since most
+	 * databases commit a CREATE TABLE right away : the next launch runs the scripts again, on an empty database.
+	 */
+	public void initialize() throws SQLException {
+		logger.trace("Entering EmbeddedBackend.initialize");
+		
+		Connection c = connect();
+		// Good practice : the cleanup code is in a finally block.
+		try {
+			try (ResultSet tables = c.getMetaData().getTables(null, null, "USERS", null)) {
+				if(tables.next()) {
+					logger.info("The embedded database already exists : its scripts are not run.");
+					logger.trace("Exiting EmbeddedBackend.initialize");
+					return;
+				}
+			}
+			c.setAutoCommit(false);
+			try (Statement statement = c.createStatement()) {
+				for(String script : scripts) {
+					for(String sql : readStatements(script.trim())) {
+						statement.execute(sql);
+					}
+					logger.info("Ran " + script.trim() + " on the embedded database.");
+				}
+			}
+			c.commit();
+		} catch (SQLException e) {
+			c.rollback();
+			try (Statement statement = c.createStatement()) {
+				statement.execute(dropSql);
+			} catch (SQLException e1) {
+				logger.warn("Can't drop the partly created embedded database. Drop it before the next launch.", e1);
+			}
+			logger.trace("Exiting EmbeddedBackend.initialize with a SQLException");
+			throw e;
+		} finally {
+			c.close();
+		}
+		
+		logger.trace("Exiting EmbeddedBackend.initialize");
+	}
+	
+	/**
+	 * Splits a script into statements, once its comments are removed. This is not a SQL parser : the comments are removed,
+	 * and the statements split on ';', even inside string literals. The scripts must thus not have any ';', "--" nor
+	 * "/*" in their string literals.
+	 * @throws SQLException : if the script can't be read.
+	 */
+	private static List<String> readStatements(String script) throws SQLException {
+		String text;
+		try {
+			text = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new SQLException("Can't read the embedded database script " + script, e);
+		}
+		text = text.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("--[^\n]*", " ");
+		
+		List<String> statements = new ArrayList<>();
+		for(String sql : text.split(";")) {
+			if(!sql.trim().isEmpty()) {
+				statements.add(sql.trim());
+			}
+		}
+		return statements;
+	}
+}
@@ -0,0 +1,92 @@
+package server;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.query.GetSimQuery;
+import model.response.ErrorServerResponse;
+import model.response.ServerResponse;
+
+import com.google.gson.JsonObject;
+
+/**
+ * The response to a getSim query, when STREAM_GET_SIM=TRUE.</br>
+ * It holds the simulation's attributes and events, fetched when the query was handled. The repayments are fetched while
+ * the response is being written, so that they go from the ResultSet to the client without being held in memory.
+ * The client receives the same JSON object as with a GetSimServerResponse.</br>
+ * Only given to the blocking transport in LINE mode : a LENGTH frame, or a SelectorConnection, needs the whole response
+ * before writing it, and would hold it in memory anyway.</br>
+ * The repayments still use the database : the response holds the admission of its query, and gives it back to the
+ * AdmissionLimiter once it is written, or discarded.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ * @see MessageHandler#streamGetSimQuery(GetSimQuery, JsonObject, Writer)
+ */
+class StreamedGetSimResponse extends ServerResponse {
+	private final transient GetSimQuery query;
+	private final transient JsonObject attributes;
+	
+	/**
+	 * True while the response holds the admission of its query.
+	 */
+	private final transient AtomicBoolean admitted = new AtomicBoolean();
+	
+	/**
+	 * How long it took to fetch the attributes and events, given to the AdmissionLimiter with the admission.
+	 */
+	private transient volatile long handlingTime = -1;
+	
+	/**
+	 * @param query : the getSim query.
+	 * @param attributes : the simulation's attributes and events, without its repayments.
+	 */
+	StreamedGetSimResponse(GetSimQuery query, JsonObject attributes) {
+		this.query = query;
+		this.attributes = attributes;
+	}
+	
+	/**
+	 * Keeps the admission of the query, instead of giving it back once the query is handled.
+	 * @param handlingTime : how long the query took to handle, in nanoseconds. -1 if unknown.
+	 */
+	void holdAdmission(long handlingTime) {
+		this.handlingTime = handlingTime;
+		admitted.set(true);
+	}
+	
+	/**
+	 * Gives the admission back to the AdmissionLimiter, if the response still holds it. To be called once the response
+	 * is written, or if it won't be.
+	 */
+	void releaseAdmission() {
+		if(admitted.compareAndSet(true, false)) {
+			AdmissionLimiter.release(handlingTime);
+		}
+	}
+	
+	@Override
+	public void writeTo(Writer out) throws IOException {
+		try {
+			MessageHandler.streamGetSimQuery(query, attributes, out);
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			releaseAdmission();
+		}
+	}
+	
+	/**
+	 * Builds the whole response in memory. Only used if a transport which can't stream is given one anyway.
+	 */
+	@Override
+	public String toString() {
+		StringWriter out = new StringWriter();
+		try {
+			writeTo(out);
+		} catch (IOException e) {
+			return new ErrorServerResponse("Database error").toString();
+		}
+		return out.toString();
+	}
+}
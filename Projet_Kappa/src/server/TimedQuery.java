@@ -0,0 +1,42 @@
+package server;
+
+import java.util.concurrent.Callable;
+
+import model.response.ServerResponse;
+
+/**
+ * A query given to the QueryScheduler, which records how long it took once a thread started handling it.</br>
+ * The AdmissionLimiter adapts to this time : the time the query waited in its queue says nothing about the database.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+abstract class TimedQuery implements Callable<ServerResponse> {
+	/**
+	 * In nanoseconds. -1 until the query was handled.
+	 */
+	private volatile long handlingTime = -1;
+	
+	@Override
+	public final ServerResponse call() throws Exception {
+		long start = System.nanoTime();
+		try {
+			return handle();
+		} finally {
+			handlingTime = System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Handles the query.
+	 * @return the query's response.
+	 * @throws Exception : whatever the treatment throws.
+	 */
+	protected abstract ServerResponse handle() throws Exception;
+	
+	/**
+	 * @return the time it took to handle the query, in nanoseconds, without its time in the queue. -1 if it wasn't handled.
+	 */
+	long getHandlingTime() {
+		return handlingTime;
+	}
+}
@@ -0,0 +1,35 @@
+package test;
+
+/**
+ * What the checks of src/test share : each check is printed, and the program exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class Checks {
+	private static int failures = 0;
+	
+	/**
+	 * Private empty constructor : makes it impossible to instantiate Checks
+	 */
+	private Checks() {}
+	
+	/**
+	 * Prints the outcome of a check.
+	 * @param passed : true if the check passed.
+	 * @param what : what was checked.
+	 */
+	public static void check(boolean passed, String what) {
+		System.out.println((passed ? "OK   " : "FAIL ") + what);
+		if(!passed) {
+			failures++;
+		}
+	}
+	
+	/**
+	 * Prints the summary, and exits : with 0 if every check passed, 1 otherwise.
+	 */
+	public static void exit() {
+		System.out.println(failures == 0 ? "All checks passed." : failures + " checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
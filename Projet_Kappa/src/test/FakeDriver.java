@@ -0,0 +1,257 @@
+package test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.KappaProperties;
+
+/**
+ * A JDBC driver which needs no database, for the checks of the classes which query one.</br>
+ * Its connections record the SQL they prepare and the values bound to it, and every query returns the rows given to setRows().
+ * It registers itself with the DriverManager when the class is loaded : call use() before ConnectionPool.init.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class FakeDriver implements Driver {
+	public static final String URL = "jdbc:kappatest";
+	
+	private static final AtomicInteger opened = new AtomicInteger();
+	private static final AtomicInteger closed = new AtomicInteger();
+	private static final List<String> prepared = Collections.synchronizedList(new ArrayList<String>());
+	private static final List<Object> binds = Collections.synchronizedList(new ArrayList<Object>());
+	private static volatile List<String> columns = new ArrayList<>();
+	private static volatile List<String[]> rows = new ArrayList<>();
+	
+	static {
+		try {
+			DriverManager.registerDriver(new FakeDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	/**
+	 * Loads the server properties, and points the ConnectionPool to this driver.
+	 * @param overrides : property names followed by their values, set afterwards.
+	 * @throws IOException : if the properties file can't be read.
+	 */
+	public static void use(String... overrides) throws IOException {
+		KappaProperties.init();
+		Properties prop = KappaProperties.getInstance();
+		prop.setProperty("DB_BACKEND", "ORACLE");
+		prop.setProperty("DB_DRIVER_NAME", FakeDriver.class.getName());
+		prop.setProperty("DB_URL", URL);
+		prop.setProperty("DB_CONNECTION_LOGIN", "kappa");
+		prop.setProperty("DB_CONNECTION_PASSWORD", "kappa");
+		for(int i = 0 ; i + 1 < overrides.length ; i += 2) {
+			prop.setProperty(overrides[i], overrides[i + 1]);
+		}
+	}
+	
+	/**
+	 * Sets the rows every query returns from now on, and forgets the recorded SQL and values.
+	 * @param columns : the column names, matched without case.
+	 * @param rows : one value per column, as text.
+	 */
+	public static void setRows(String[] columns, String[]... rows) {
+		FakeDriver.columns = Arrays.asList(columns);
+		FakeDriver.rows = Arrays.asList(rows);
+		prepared.clear();
+		binds.clear();
+	}
+	
+	/**
+	 * @return the SQL prepared since the last setRows(), in order.
+	 */
+	public static List<String> getPrepared() {
+		synchronized(prepared) {
+			return new ArrayList<>(prepared);
+		}
+	}
+	
+	/**
+	 * @return the values bound since the last setRows(), in order.
+	 */
+	public static List<Object> getBinds() {
+		synchronized(binds) {
+			return new ArrayList<>(binds);
+		}
+	}
+	
+	public static int getOpened() {
+		return opened.get();
+	}
+	
+	public static int getClosed() {
+		return closed.get();
+	}
+	
+	public Connection connect(String url, Properties info) {
+		if(!acceptsURL(url)) {
+			return null;
+		}
+		opened.incrementAndGet();
+		return proxy(Connection.class, new InvocationHandler() {
+			private boolean isClosed = false;
+			
+			public Object invoke(Object connection, Method method, Object[] args) throws SQLException {
+				switch(method.getName()) {
+				case "prepareStatement":
+					if(isClosed) {
+						throw new SQLException("Connection closed");
+					}
+					prepared.add((String) args[0]);
+					return statement();
+				case "close":
+					if(!isClosed) {
+						isClosed = true;
+						closed.incrementAndGet();
+					}
+					return null;
+				case "isClosed":
+					return isClosed;
+				case "isValid":
+					return !isClosed;
+				default:
+					return defaultResult(connection, method, args);
+				}
+			}
+		});
+	}
+	
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL);
+	}
+	
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+	
+	public int getMajorVersion() {
+		return 1;
+	}
+	
+	public int getMinorVersion() {
+		return 0;
+	}
+	
+	public boolean jdbcCompliant() {
+		return false;
+	}
+	
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+	
+	private static PreparedStatement statement() {
+		return proxy(PreparedStatement.class, new InvocationHandler() {
+			private boolean isClosed = false;
+			
+			public Object invoke(Object statement, Method method, Object[] args) {
+				String name = method.getName();
+				if(name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+					binds.add(args[1]);
+					return null;
+				}
+				switch(name) {
+				case "executeQuery":
+					return results(columns, rows);
+				case "close":
+					isClosed = true;
+					return null;
+				case "isClosed":
+					return isClosed;
+				default:
+					return defaultResult(statement, method, args);
+				}
+			}
+		});
+	}
+	
+	private static ResultSet results(final List<String> columns, final List<String[]> rows) {
+		return proxy(ResultSet.class, new InvocationHandler() {
+			private int row = -1;
+			
+			public Object invoke(Object results, Method method, Object[] args) throws SQLException {
+				switch(method.getName()) {
+				case "next":
+					return ++row < rows.size();
+				case "findColumn":
+					return column((String) args[0]);
+				case "getString":
+					return value(args[0]);
+				case "getInt":
+					String value = value(args[0]);
+					return value == null ? 0 : Integer.parseInt(value);
+				default:
+					return defaultResult(results, method, args);
+				}
+			}
+			
+			private int column(String name) throws SQLException {
+				for(int i = 0 ; i < columns.size() ; i++) {
+					if(columns.get(i).equalsIgnoreCase(name)) {
+						return i + 1;
+					}
+				}
+				throw new SQLException("No column " + name);
+			}
+			
+			private String value(Object column) throws SQLException {
+				int index = column instanceof String ? column((String) column) : (Integer) column;
+				return rows.get(row)[index - 1];
+			}
+		});
+	}
+	
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(FakeDriver.class.getClassLoader(), new Class<?>[] {type}, handler));
+	}
+	
+	/**
+	 * What the methods the checks don't look at return : nothing, or a default value when it must be a primitive.
+	 */
+	private static Object defaultResult(Object proxy, Method method, Object[] args) {
+		switch(method.getName()) {
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "FakeDriver " + method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+		}
+		Class<?> type = method.getReturnType();
+		if(type == boolean.class) {
+			return false;
+		} else if(type == int.class) {
+			return 0;
+		} else if(type == long.class) {
+			return 0L;
+		} else if(type == float.class) {
+			return 0f;
+		} else if(type == double.class) {
+			return 0d;
+		} else if(type == short.class) {
+			return (short) 0;
+		} else if(type == byte.class) {
+			return (byte) 0;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,80 @@
+package test;
+
+import server.AdmissionLimiter;
+
+/**
+ * Checks the AIMD limit of the AdmissionLimiter : it refuses the queries beyond the limit, grows by about one query per
+ * limit of fast queries while in use, shrinks at most once per window of queries, never goes below its minimum, and is
+ * left as it is by a query of unknown latency.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestAdmissionLimiter {
+	private static final long FAST = 1000000L; // 1 ms, in nanoseconds
+	private static final long SLOW = 500000000L; // 500 ms
+	
+	public static void main(String[] args) {
+		AdmissionLimiter.init(10, 2, 20, 100);
+		Checks.check(acquire(20) == 10, "10 queries admitted at first");
+		Checks.check(!AdmissionLimiter.tryAcquire(), "the 11th is refused");
+		
+		// Fast queries while the limit is used : additive increase
+		for(int i = 0 ; i < 30 ; i++) {
+			AdmissionLimiter.release(FAST);
+			acquire(2);
+		}
+		int grown = AdmissionLimiter.getLimit();
+		Checks.check(grown > 10 && grown <= 13, "the limit grows by about one per window of fast queries : " + grown);
+		Checks.check(AdmissionLimiter.getInFlight() == grown, "the queries admitted on the way fill the new limit");
+		
+		// Unknown latency : the query is released, the limit doesn't move
+		AdmissionLimiter.release(-1);
+		Checks.check(AdmissionLimiter.getLimit() == grown, "a negative latency leaves the limit as it is");
+		Checks.check(AdmissionLimiter.getInFlight() == grown - 1, "a negative latency still releases the query");
+		AdmissionLimiter.cleanup();
+		
+		// Slow queries : multiplicative decrease, once per window
+		AdmissionLimiter.init(10, 2, 20, 100);
+		acquire(10);
+		AdmissionLimiter.release(SLOW);
+		Checks.check(AdmissionLimiter.getLimit() == 9, "a slow query shrinks the limit : " + AdmissionLimiter.getLimit());
+		for(int i = 0 ; i < 5 ; i++) {
+			AdmissionLimiter.release(SLOW);
+		}
+		Checks.check(AdmissionLimiter.getLimit() == 9, "the slow queries of the same window don't shrink it again");
+		acquire(20);
+		for(int i = 0 ; i < 9 ; i++) {
+			AdmissionLimiter.release(-1);
+		}
+		AdmissionLimiter.release(SLOW);
+		Checks.check(AdmissionLimiter.getLimit() == 8, "a slow query of the next window shrinks it again : " + AdmissionLimiter.getLimit());
+		AdmissionLimiter.cleanup();
+		
+		// Floor
+		AdmissionLimiter.init(3, 2, 20, 100);
+		for(int i = 0 ; i < 50 ; i++) {
+			acquire(1);
+			AdmissionLimiter.release(SLOW);
+		}
+		Checks.check(AdmissionLimiter.getLimit() == 2, "the limit never goes below its minimum");
+		AdmissionLimiter.cleanup();
+		
+		Checks.check(acquire(100) == 100, "every query is admitted once cleaned up");
+		
+		Checks.exit();
+	}
+	
+	/**
+	 * @return the number of queries admitted, out of count.
+	 */
+	private static int acquire(int count) {
+		int admitted = 0;
+		for(int i = 0 ; i < count ; i++) {
+			if(AdmissionLimiter.tryAcquire()) {
+				admitted++;
+			}
+		}
+		return admitted;
+	}
+}
@@ -0,0 +1,75 @@
+package test;
+
+import util.BloomFilter;
+
+/**
+ * Checks that the BloomFilter never rejects a key it was built with, and lets about 1% of the other keys through.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestBloomFilter {
+	public static void main(String[] args) {
+		BloomFilter empty = new BloomFilter(0);
+		Checks.check(countMightContain(empty, "unknown", 0, 10000) == 0, "an empty filter contains nothing");
+		
+		// Account ids look alike : only their last digits differ
+		int keys = 10000;
+		BloomFilter filter = new BloomFilter(keys);
+		for(int i = 0 ; i < keys ; i++) {
+			filter.add(accountId(i));
+		}
+		int found = 0;
+		for(int i = 0 ; i < keys ; i++) {
+			if(filter.mightContain(accountId(i))) {
+				found++;
+			}
+		}
+		Checks.check(found == keys, "no false negative among " + keys + " keys");
+		
+		int probes = 100000;
+		int falsePositives = 0;
+		for(int i = keys ; i < keys + probes ; i++) {
+			if(filter.mightContain(accountId(i))) {
+				falsePositives++;
+			}
+		}
+		double rate = 100.0 * falsePositives / probes;
+		Checks.check(rate < 3, "false positive rate around 1% : " + rate + "%");
+		
+		BloomFilter text = new BloomFilter(2);
+		text.add("caf\u00e9");
+		text.add("");
+		Checks.check(text.mightContain("caf\u00e9") && text.mightContain(""), "non-ASCII and empty keys");
+		Checks.check(!text.mightContain("cafe"), "keys differing by an accent are different keys");
+		
+		// More keys than expected : more false positives, but still no false negative
+		BloomFilter overfull = new BloomFilter(10);
+		for(int i = 0 ; i < 1000 ; i++) {
+			overfull.add(accountId(i));
+		}
+		found = 0;
+		for(int i = 0 ; i < 1000 ; i++) {
+			if(overfull.mightContain(accountId(i))) {
+				found++;
+			}
+		}
+		Checks.check(found == 1000, "no false negative in an overfull filter");
+		
+		Checks.exit();
+	}
+	
+	private static String accountId(int i) {
+		return String.format("%010d", i);
+	}
+	
+	private static int countMightContain(BloomFilter filter, String prefix, int from, int to) {
+		int count = 0;
+		for(int i = from ; i < to ; i++) {
+			if(filter.mightContain(prefix + i)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
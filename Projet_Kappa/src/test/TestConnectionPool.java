@@ -0,0 +1,83 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import server.ConnectionPool;
+
+/**
+ * Checks the ConnectionPool's acquire, release and timeout, against the FakeDriver.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestConnectionPool {
+	public static void main(String[] args) throws Exception {
+		FakeDriver.use("DB_CONNECTION_POOL_MIN_SIZE", "2",
+				"DB_CONNECTION_POOL_MAX_SIZE", "3",
+				"DB_CONNECTION_POOL_STARTUP_SIZE", "2",
+				"DB_CONNECTION_POOL_ACQUIRE_TIMEOUT", "200",
+				"DB_CONNECTION_POOL_VALIDATION_PERIOD", "0",
+				"DB_CONNECTION_POOL_IDLE_TIMEOUT", "0",
+				"DB_CONNECTION_POOL_LEAK_THRESHOLD", "0");
+		ConnectionPool.init();
+		Checks.check(FakeDriver.getOpened() == 2 && ConnectionPool.getIdleCount() == 2, "the min size is opened by init");
+		
+		Connection first = ConnectionPool.acquire();
+		Connection second = ConnectionPool.acquire();
+		Checks.check(first != second, "two acquires give two connections");
+		Checks.check(FakeDriver.getOpened() == 2, "the pooled connections are used first");
+		final Connection third = ConnectionPool.acquire();
+		Checks.check(FakeDriver.getOpened() == 3 && ConnectionPool.getOverflowCount() == 1, "a connection is opened on demand up to the max size");
+		Checks.check(ConnectionPool.getActiveCount() == 3 && ConnectionPool.getIdleCount() == 0, "3 connections in use, none idle");
+		
+		// The max size is reached : acquire waits for the timeout, then gives up
+		long start = System.nanoTime();
+		try {
+			ConnectionPool.acquire();
+			Checks.check(false, "acquire times out once the max size is reached");
+		} catch (SQLException e) {
+			long waited = (System.nanoTime() - start) / 1000000;
+			Checks.check(waited >= 150, "acquire times out once the max size is reached (after " + waited + " ms)");
+		}
+		
+		// A release wakes up a waiting acquire
+		Thread releaser = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				ConnectionPool.release(third);
+			}
+		};
+		releaser.start();
+		Connection waited = ConnectionPool.acquire();
+		Checks.check(waited == third, "a released connection goes to the waiting acquire");
+		releaser.join();
+		
+		ConnectionPool.release(waited);
+		ConnectionPool.release(second);
+		ConnectionPool.release(first);
+		Checks.check(ConnectionPool.getActiveCount() == 0 && ConnectionPool.getIdleCount() == 3, "released connections go back to the pool");
+		Checks.check(FakeDriver.getClosed() == 0, "released connections stay open");
+		ConnectionPool.release(first);
+		Checks.check(ConnectionPool.getIdleCount() == 3, "a second release is ignored");
+		
+		Checks.check(ConnectionPool.acquire() == first, "the last released connection is reused first");
+		
+		ConnectionPool.cleanup();
+		Checks.check(FakeDriver.getClosed() == 2, "cleanup closes the idle connections");
+		ConnectionPool.release(first);
+		Checks.check(FakeDriver.getClosed() == 3, "a connection released after cleanup is closed");
+		try {
+			ConnectionPool.acquire();
+			Checks.check(false, "acquire refused after cleanup");
+		} catch (IllegalStateException e) {
+			Checks.check(true, "acquire refused after cleanup");
+		}
+		
+		Checks.exit();
+	}
+}
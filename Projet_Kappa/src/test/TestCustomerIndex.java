@@ -0,0 +1,68 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.response.GetAccountsServerResponse.Account;
+import server.ConnectionPool;
+import server.CustomerIndex;
+
+/**
+ * Checks that the CustomerIndex matches the names with the semantics of Oracle's LIKE : '%' and '_' wildcards, the other
+ * characters taken literally, case-sensitive, an empty pattern matching nothing, and a null name never matching.</br>
+ * The index is loaded from the FakeDriver. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestCustomerIndex {
+	public static void main(String[] args) throws Exception {
+		FakeDriver.use("DB_CONNECTION_POOL_MIN_SIZE", "1",
+				"DB_CONNECTION_POOL_VALIDATION_PERIOD", "0",
+				"DB_CONNECTION_POOL_IDLE_TIMEOUT", "0",
+				"DB_CONNECTION_POOL_LEAK_THRESHOLD", "0");
+		ConnectionPool.init();
+		// The employees query gets these rows too : no advisor is looked for here
+		FakeDriver.setRows(new String[] {"Customer_Id", "First_Name", "Last_Name", "Account_Id", "Account_Num", "Advisor_Id"},
+				new String[] {"1", "Jean", "Dupont", "a1", "n1", null},
+				new String[] {"2", "Jeanne", "Dupond", "a2", "n2", null},
+				new String[] {"3", "jean", "du_pont", "a3", "n3", null},
+				new String[] {"4", "Marc", "100%", "a4", "n4", null},
+				new String[] {"5", "A.b", "x(y)", "a5", "n5", null},
+				new String[] {"6", "Axb", "xy", "a6", "n6", null},
+				new String[] {"7", null, "Sans", "a7", "n7", null});
+		CustomerIndex.init(3600000);
+		CustomerIndex.refresh();
+		Checks.check(CustomerIndex.size() == 7, "7 customers indexed");
+		
+		checkSearch("Jean", null, "exact first name, case-sensitive", "a1");
+		checkSearch("Jean%", null, "'%' matches any number of characters", "a1", "a2");
+		checkSearch("%ea%", null, "'%' at both ends", "a1", "a2", "a3");
+		checkSearch("J_an", null, "'_' matches exactly one character", "a1");
+		checkSearch("J_", null, "'_' doesn't match two characters", new String[0]);
+		checkSearch(null, "Dupon_", "'_' at the end", "a1", "a2");
+		checkSearch(null, "du_pont", "'_' also matches itself", "a3");
+		checkSearch("A.b", null, "'.' is taken literally", "a5");
+		checkSearch(null, "x(y)", "parentheses are taken literally", "a5");
+		checkSearch(null, "100%", "'%' after literal digits", "a4");
+		checkSearch("%", null, "'%' doesn't match a null name", "a1", "a2", "a3", "a4", "a5", "a6");
+		checkSearch(null, "Sans", "a customer without first name is found by its last name", "a7");
+		checkSearch("", null, "an empty pattern matches nothing", new String[0]);
+		checkSearch("Jean", "Dupon%", "both names must match", "a1");
+		checkSearch("Jean", "Dupond", "a customer matching only one name is left out", new String[0]);
+		checkSearch("Pierre", null, "an unknown name matches nothing", new String[0]);
+		
+		CustomerIndex.cleanup();
+		ConnectionPool.cleanup();
+		
+		Checks.exit();
+	}
+	
+	private static void checkSearch(String firstName, String lastName, String what, String... expected) {
+		List<String> found = new ArrayList<>();
+		for(Account account : CustomerIndex.search(firstName, lastName)) {
+			found.add(account.getAccount_id());
+		}
+		Checks.check(found.equals(Arrays.asList(expected)), what + " : " + found);
+	}
+}
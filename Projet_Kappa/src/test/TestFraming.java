@@ -0,0 +1,118 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+
+import util.Compression;
+import util.Framing;
+import util.MessageReader;
+import util.MessageWriter;
+import util.StreamableMessage;
+
+/**
+ * Checks that MessageReader reads back what MessageWriter wrote, in both framing modes.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestFraming {
+	public static void main(String[] args) throws IOException {
+		String[] messages = {"OK {\"status\":\"OK\"}", "", repeat("OK {\"id\":\"42\"} ", 20000)};
+		
+		// LINE : the reader concatenates every line available at once, so each message gets its own stream
+		for(String message : messages) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			new MessageWriter(bytes).write(message);
+			MessageReader in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+			Checks.check(message.equals(in.read()), "LINE round trip of a " + message.length() + " characters message");
+			Checks.check(in.read() == null, "LINE end of stream");
+		}
+		
+		// LENGTH : the messages follow each other in the same stream. Always UTF-8, unlike LINE which uses the default charset
+		messages = new String[] {messages[0], messages[1], messages[2], "ERR {\"message\":\"caf\u00e9 cr\u00e8me\"}"};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MessageWriter out = new MessageWriter(bytes);
+		out.setFraming(Framing.LENGTH);
+		for(String message : messages) {
+			out.write(message);
+		}
+		MessageReader in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+		in.setFraming(Framing.LENGTH);
+		for(String message : messages) {
+			Checks.check(message.equals(in.read()), "LENGTH round trip of a " + message.length() + " characters message");
+		}
+		Checks.check(in.read() == null, "LENGTH end of stream");
+		
+		// Streamed messages, with the head of a pipelined response
+		final String streamed = repeat("{\"repayment\":1}", 5000);
+		StreamableMessage message = new StreamableMessage() {
+			public void writeTo(Writer writer) throws IOException {
+				for(int i = 0 ; i < streamed.length() ; i += 1000) {
+					writer.write(streamed, i, Math.min(1000, streamed.length() - i));
+				}
+			}
+		};
+		for(Framing framing : Framing.values()) {
+			bytes = new ByteArrayOutputStream();
+			out = new MessageWriter(bytes);
+			out.setFraming(framing);
+			out.write("#7 ", message);
+			in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+			in.setFraming(framing);
+			Checks.check(("#7 " + streamed).equals(in.read()), framing + " round trip of a streamed message");
+		}
+		
+		// Compression : only the payloads over the threshold are compressed, and read back transparently
+		bytes = new ByteArrayOutputStream();
+		out = new MessageWriter(bytes);
+		out.setFraming(Framing.LENGTH);
+		out.setCompressionThreshold(100);
+		for(String sent : messages) {
+			out.write(sent);
+		}
+		out.write("#8 ", message);
+		Checks.check(bytes.size() < messages[2].length() / 10, "big repetitive messages are compressed (" + bytes.size() + " bytes)");
+		in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+		in.setFraming(Framing.LENGTH);
+		in.setCompression(true);
+		for(String expected : messages) {
+			Checks.check(expected.equals(in.read()), "compressed LENGTH round trip of a " + expected.length() + " characters message");
+		}
+		Checks.check(("#8 " + streamed).equals(in.read()), "compressed LENGTH round trip of a streamed message");
+		Checks.check(in.read() == null, "compressed LENGTH end of stream");
+		
+		byte[] compressed = Compression.deflate(messages[2].getBytes(Framing.FRAME_CHARSET), messages[2].length());
+		try {
+			Compression.inflate(compressed, compressed.length / 2);
+			Checks.check(false, "truncated compressed payload refused");
+		} catch (IOException e) {
+			Checks.check(true, "truncated compressed payload refused");
+		}
+		
+		// Invalid headers
+		checkRefused(new byte[] {0x40, 0, 0, 0}, "unknown flag");
+		checkRefused(new byte[] {(byte) 0x80, 0, 0, 1}, "compressed frame without compression negotiated");
+		checkRefused(new byte[] {0x7F, 0, 0, 0}, "frame over MAX_FRAME_SIZE");
+		
+		Checks.exit();
+	}
+	
+	private static void checkRefused(byte[] header, String what) {
+		try {
+			MessageReader.decodeHeader(header, false);
+			Checks.check(false, "header refused : " + what);
+		} catch (IOException e) {
+			Checks.check(true, "header refused : " + what);
+		}
+	}
+	
+	private static String repeat(String s, int times) {
+		StringBuilder builder = new StringBuilder(s.length() * times);
+		for(int i = 0 ; i < times ; i++) {
+			builder.append(s);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,83 @@
+package test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import model.query.GetSimsQuery;
+import model.response.GetSimsServerResponse;
+import model.response.ServerResponse;
+import server.ConnectionPool;
+import server.MessageHandler;
+
+/**
+ * Checks the keyset pagination of the getSims responses against the FakeDriver : the page size, the SQL, its bound values,
+ * and the cursor of the next page.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestPagination {
+	private static final String[] COLUMNS = {"Loan_Id", "Name"};
+	
+	public static void main(String[] args) throws Exception {
+		// Without statement cache, every query is prepared again, and recorded by the FakeDriver
+		FakeDriver.use("DB_CONNECTION_POOL_MIN_SIZE", "1",
+				"DB_CONNECTION_POOL_VALIDATION_PERIOD", "0",
+				"DB_CONNECTION_POOL_IDLE_TIMEOUT", "0",
+				"DB_CONNECTION_POOL_LEAK_THRESHOLD", "0",
+				"DB_STATEMENT_CACHE_SIZE", "0");
+		ConnectionPool.init();
+		
+		// First page : one more row than the limit is read, and tells there is a next page
+		FakeDriver.setRows(COLUMNS, new String[] {"10", "A"}, new String[] {"11", "B"}, new String[] {"12", "C"});
+		GetSimsServerResponse page = getSims(new GetSimsQuery("7", 2, null));
+		Checks.check(ids(page).equals(Arrays.asList("10", "11")), "the page holds limit simulations");
+		Checks.check("11".equals(page.getNextCursor()), "the cursor is the id of the page's last simulation");
+		String sql = FakeDriver.getPrepared().get(0);
+		Checks.check(sql.contains("ORDER BY Loan_Id") && sql.endsWith("WHERE ROWNUM <= ?"), "the page is sorted by id, and limited in the database");
+		Checks.check(!sql.contains("Loan_Id > ?"), "the first page has no cursor");
+		Checks.check(FakeDriver.getBinds().equals(Arrays.<Object>asList("7", 3)), "limit + 1 rows are asked for");
+		
+		// Next page : after the cursor. Fewer rows than the limit : it is the last one
+		FakeDriver.setRows(COLUMNS, new String[] {"12", "C"});
+		page = getSims(new GetSimsQuery("7", 2, "11"));
+		Checks.check(ids(page).equals(Arrays.asList("12")), "the next page starts after the cursor");
+		Checks.check(page.getNextCursor() == null, "the last page has no cursor");
+		sql = FakeDriver.getPrepared().get(0);
+		Checks.check(sql.contains("AND Loan_Id > ? ORDER BY Loan_Id") && sql.endsWith("WHERE ROWNUM <= ?"), "the cursor is a condition on the id");
+		Checks.check(FakeDriver.getBinds().equals(Arrays.<Object>asList("7", "11", 3)), "the cursor is bound before the limit");
+		
+		// Exactly limit rows : there is no next page either
+		FakeDriver.setRows(COLUMNS, new String[] {"10", "A"}, new String[] {"11", "B"});
+		page = getSims(new GetSimsQuery("7", 2, null));
+		Checks.check(ids(page).size() == 2 && page.getNextCursor() == null, "a full last page has no cursor");
+		
+		// No limit, and no PAGE_MAX_SIZE : every simulation, as before the pagination
+		FakeDriver.setRows(COLUMNS, new String[] {"10", "A"}, new String[] {"11", "B"}, new String[] {"12", "C"});
+		page = getSims(new GetSimsQuery("7"));
+		Checks.check(ids(page).size() == 3 && page.getNextCursor() == null, "without limit, every simulation is sent");
+		sql = FakeDriver.getPrepared().get(0);
+		Checks.check(!sql.contains("ROWNUM") && !sql.contains("ORDER BY"), "without limit, the query is not paginated");
+		Checks.check(FakeDriver.getBinds().equals(Arrays.<Object>asList("7")), "without limit, only the account is bound");
+		
+		ConnectionPool.cleanup();
+		
+		Checks.exit();
+	}
+	
+	private static GetSimsServerResponse getSims(GetSimsQuery query) {
+		ServerResponse response = MessageHandler.handleGetSimsQuery(query);
+		if(!(response instanceof GetSimsServerResponse)) {
+			throw new IllegalStateException("Unexpected response : " + response);
+		}
+		return (GetSimsServerResponse) response;
+	}
+	
+	private static List<String> ids(GetSimsServerResponse page) {
+		String[] ids = new String[page.getSimulations().size()];
+		for(int i = 0 ; i < ids.length ; i++) {
+			ids[i] = page.getSimulations().get(i).getId();
+		}
+		return Arrays.asList(ids);
+	}
+}
@@ -0,0 +1,65 @@
+package test;
+
+import java.util.concurrent.TimeUnit;
+
+import model.response.GetSimServerResponse;
+import server.SimulationCache;
+
+/**
+ * Checks the SimulationCache : the least recently used simulation is evicted first, a response expires SIM_CACHE_TTL after
+ * it was loaded, and a response loaded before an invalidation is not cached.</br>
+ * Needs neither the server nor the database. Prints each check, and exits with 1 if one of them failed.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class TestSimulationCache {
+	public static void main(String[] args) {
+		// LRU eviction
+		SimulationCache.init(2, 0);
+		put("a");
+		put("b");
+		SimulationCache.get("a"); // "b" is now the least recently used
+		put("c");
+		Checks.check(SimulationCache.size() == 2, "the cache holds at most its max size");
+		Checks.check(SimulationCache.get("b") == null, "the least recently used simulation is evicted");
+		Checks.check(SimulationCache.get("a") != null && SimulationCache.get("c") != null, "the others are kept");
+		Checks.check(SimulationCache.getEvictions() == 1, "the eviction is counted");
+		
+		// Invalidation while loading
+		long generation = SimulationCache.getGeneration();
+		SimulationCache.invalidate("a");
+		Checks.check(SimulationCache.get("a") == null, "an invalidated simulation is removed");
+		SimulationCache.put(response("a"), generation, System.nanoTime());
+		Checks.check(SimulationCache.get("a") == null, "a response loaded before an invalidation is not cached");
+		put("a");
+		Checks.check(SimulationCache.get("a") != null, "a response loaded after it is");
+		SimulationCache.invalidateAll();
+		Checks.check(SimulationCache.size() == 0, "invalidateAll empties the cache");
+		
+		SimulationCache.put(response(null), SimulationCache.getGeneration(), System.nanoTime());
+		Checks.check(SimulationCache.size() == 0, "an unknown simulation is not cached");
+		SimulationCache.cleanup();
+		
+		// Expiry : the loading time is set in the past rather than waiting
+		SimulationCache.init(10, 1000);
+		long now = System.nanoTime();
+		SimulationCache.put(response("old"), SimulationCache.getGeneration(), now - TimeUnit.MILLISECONDS.toNanos(2000));
+		SimulationCache.put(response("new"), SimulationCache.getGeneration(), now);
+		Checks.check(SimulationCache.get("old") == null, "a response older than its time to live expires");
+		Checks.check(SimulationCache.getExpirations() == 1, "the expiration is counted");
+		Checks.check(SimulationCache.get("new") != null, "a recent response is answered from memory");
+		SimulationCache.cleanup();
+		
+		Checks.check(SimulationCache.get("new") == null, "nothing is cached once cleaned up");
+		
+		Checks.exit();
+	}
+	
+	private static void put(String sim_id) {
+		SimulationCache.put(response(sim_id), SimulationCache.getGeneration(), System.nanoTime());
+	}
+	
+	private static GetSimServerResponse response(String sim_id) {
+		return new GetSimServerResponse("sim " + sim_id, sim_id, null, null, null, 0, 0, 0, 0, 0, null);
+	}
+}
@@ -0,0 +1,73 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A set of strings which takes about 10 bits per string, whatever their length, but may answer that it contains a string
+ * it doesn't (about 1% of the time). It never answers that it doesn't contain a string which was added.</br>
+ * Not thread-safe while strings are being added : build it in one thread, then share it, and don't add to it anymore.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class BloomFilter {
+	/**
+	 * 10 bits and 7 hashes per string give a false positive rate of about 1%.
+	 */
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASHES = 7;
+	
+	private final long[] bits;
+	private final long size;
+	
+	/**
+	 * @param expectedKeys : the number of strings which will be added. More make false positives more frequent.
+	 */
+	public BloomFilter(int expectedKeys) {
+		long wanted = Math.max(64, (long) expectedKeys * BITS_PER_KEY);
+		bits = new long[(int) ((wanted + 63) / 64)];
+		size = (long) bits.length * 64;
+	}
+	
+	public void add(String key) {
+		long hash = hash(key);
+		long h1 = hash >>> 32;
+		long h2 = hash & 0xFFFFFFFFL;
+		for(int i = 0 ; i < HASHES ; i++) {
+			long bit = (h1 + i * h2) % size; // Positive : h1 and h2 are under 2^32
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+	
+	/**
+	 * @return false if key was never added. true if it was, or, rarely, if it wasn't.
+	 */
+	public boolean mightContain(String key) {
+		long hash = hash(key);
+		long h1 = hash >>> 32;
+		long h2 = hash & 0xFFFFFFFFL;
+		for(int i = 0 ; i < HASHES ; i++) {
+			long bit = (h1 + i * h2) % size;
+			if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash of the UTF-8 bytes of key, mixed so that each of its bits depends on every byte : its two halves
+	 * are used as two independent hashes.
+	 */
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+}
@@ -0,0 +1,86 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The ways LENGTH frames' payloads can be compressed. See the protocol's documentation for more details.</br>
+ * NONE is the default. DEFLATE is negotiated in the FRAMING query, and needs LENGTH framing : a frame whose payload is
+ * compressed (zlib format) has the highest bit of its header set. The sender only compresses the payloads above a
+ * size threshold, since small messages would cost CPU time for no gain.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public enum Compression {
+	NONE,
+	DEFLATE;
+	
+	/**
+	 * The bit of a LENGTH frame's header which is set when its payload is compressed.
+	 */
+	public static final int COMPRESSED_FLAG = 0x80000000;
+	
+	/**
+	 * Responses are sent as soon as they are built : speed matters more than the last few percents of size.
+	 */
+	private static final int LEVEL = Deflater.BEST_SPEED;
+	
+	/**
+	 * Compresses a payload.
+	 * @param data : the buffer holding the payload
+	 * @param length : the length of the payload, at the beginning of data
+	 * @return the compressed payload
+	 */
+	public static byte[] deflate(byte[] data, int length) {
+		Deflater deflater = new Deflater(LEVEL);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(64, length / 4));
+			byte[] chunk = new byte[8192];
+			while(!deflater.finished()) {
+				int count = deflater.deflate(chunk);
+				result.write(chunk, 0, count);
+			}
+			return result.toByteArray();
+		} finally {
+			// Good practice : the cleanup code is in a finally block.
+			deflater.end(); // Frees the native memory right away instead of waiting for the GC
+		}
+	}
+	
+	/**
+	 * Decompresses a payload.
+	 * @param data : the buffer holding the compressed payload
+	 * @param length : the length of the compressed payload, at the beginning of data
+	 * @return the original payload
+	 * @throws IOException : if the payload is corrupted, or bigger than Framing.MAX_FRAME_SIZE once decompressed.
+	 */
+	public static byte[] inflate(byte[] data, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, 0, length);
+			// Capped : a big frame would otherwise take 4 times its size in memory before a byte is inflated. The buffer grows as needed.
+			ByteArrayOutputStream result = new ByteArrayOutputStream((int) Math.min((long) length * 4, 64 * 1024));
+			byte[] chunk = new byte[8192];
+			while(!inflater.finished()) {
+				int count = inflater.inflate(chunk);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed frame");
+				}
+				result.write(chunk, 0, count);
+				if(result.size() > Framing.MAX_FRAME_SIZE) {
+					throw new IOException("Compressed frame too big once decompressed");
+				}
+			}
+			return result.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted compressed frame", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
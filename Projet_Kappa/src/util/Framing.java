@@ -0,0 +1,38 @@
+package util;
+
+import java.nio.charset.Charset;
+
+/**
+ * The ways messages can be delimited on a connection. See the protocol's documentation for more details.</br>
+ * LINE is the historical mode : a message is made of the lines received until no more data is available.
+ * It is simple, but it relies on TCP timing to separate two messages.</br>
+ * LENGTH is negotiated by sending a FRAMING query as the very first message : each message is then preceded by a
+ * 4 bytes big-endian header. Its lowest 31 bits hold the length of the payload, which is encoded in UTF-8.
+ * The highest bit is reserved for flags : it is set when the payload is compressed (see Compression), and must be 0 otherwise.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public enum Framing {
+	LINE,
+	LENGTH;
+	
+	/**
+	 * The charset of LENGTH frames' payloads.
+	 */
+	public static final Charset FRAME_CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * The size of a LENGTH frame's header, in bytes.
+	 */
+	public static final int HEADER_SIZE = 4;
+	
+	/**
+	 * The bits of a LENGTH frame's header which hold the payload's length.
+	 */
+	public static final int LENGTH_MASK = 0x7FFFFFFF;
+	
+	/**
+	 * Frames announcing a bigger payload are refused, so that a corrupted header can't make us allocate gigabytes.
+	 */
+	public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+}
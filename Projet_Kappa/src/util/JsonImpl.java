@@ -1,14 +1,24 @@
 package util;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
 import java.util.Properties;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * This class is used to configure and access a single Gson object instance for the whole project.
- * @version R2 sprint 1 - 17/03/2016
+ * @version R3 sprint 3
  * @author Kappa
+ * @changes
+ * 		R2 sprint 1 -> R3 sprint 3 : added the JsonElement methods, used to handle BATCH queries, 
+ * 			and the JsonWriter methods, used to stream big responses.
+ * 			Added warmUp, used on launch.
  */
 public class JsonImpl {
 	/**
@@ -56,4 +66,65 @@ public class JsonImpl {
 	public static <T> T fromJson(String jsonString, Class<T> classOfT) {
 		return gson.fromJson(jsonString, classOfT);
 	}
+	
+	/**
+	 * Converts a Java object into a tree of JsonElements.
+	 * @param o : a serializable Java Object
+	 * @return : the JsonElement representation of that object.
+	 */
+	public static JsonElement toJsonTree(Object o) {
+		return gson.toJsonTree(o);
+	}
+	
+	/**
+	 * Deserializes a tree of JsonElements.
+	 * @param json : the JsonElement representation of a Java object
+	 * @param classOfT : the expected class of the object to be deserialized.
+	 * @return The Java Object of the right class, or null if json==null
+	 * @throws JsonSyntaxException if json doesn't match classOfT.
+	 */
+	public static <T> T fromJson(JsonElement json, Class<T> classOfT) {
+		return gson.fromJson(json, classOfT);
+	}
+	
+	/**
+	 * Parses a JSON string without deserializing it.
+	 * @param jsonString : a JSON string
+	 * @return its JsonElement representation
+	 * @throws JsonSyntaxException if jsonString is not properly formatted JSON.
+	 */
+	public static JsonElement parse(String jsonString) {
+		return new JsonParser().parse(jsonString);
+	}
+	
+	/**
+	 * Creates a JsonWriter configured like the Gson object, to write a JSON document piece by piece.
+	 * @param out : where to write the JSON document
+	 * @return the JsonWriter. Flushing or closing it flushes or closes out.
+	 * @throws IOException : if out can't be written to.
+	 */
+	public static JsonWriter newJsonWriter(Writer out) throws IOException {
+		return gson.newJsonWriter(out);
+	}
+	
+	/**
+	 * Converts a Java object into JSON, directly into a JsonWriter.
+	 * @param o : a serializable Java Object
+	 * @param typeOfO : the type of o. Use its declared type, which can differ from o.getClass().
+	 * @param writer : where to write the JSON representation of o.
+	 */
+	public static void toJson(Object o, Type typeOfO, JsonWriter writer) {
+		gson.toJson(o, typeOfO, writer);
+	}
+	
+	/**
+	 * Builds the Gson adapters of some classes right away. Gson otherwise builds them, by reflection, the first time
+	 * it meets each class : warming up the protocol classes on launch spares that cost to the first clients.
+	 * @param classes : the classes which will be serialized or deserialized.
+	 */
+	public static void warmUp(Class<?>... classes) {
+		for(Class<?> c : classes) {
+			gson.getAdapter(c);
+		}
+	}
 }
@@ -0,0 +1,72 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations, and gives their percentiles, without locking nor keeping every value.</br>
+ * The durations are counted in buckets whose bounds are powers of 2 microseconds : a percentile is thus the upper bound of
+ * its bucket, at most twice the real value. This is precise enough to tell 100 microseconds from 10 ms, which is what matters.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class LatencyHistogram {
+	/**
+	 * Bucket i counts the durations d, in microseconds, such that 2^(i-1) <= d < 2^i. Bucket 0 counts those under 1 microsecond.
+	 * The last bucket counts every longer duration (more than 2^38 microseconds, about 3 days).
+	 */
+	private static final int BUCKETS = 40;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param nanos : a duration, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		
+		long currentMax;
+		while(micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+			// Another thread changed the max in the meantime : trying again
+		}
+	}
+	
+	/**
+	 * @return the number of durations recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return the longest duration recorded, in microseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @param percentile : between 0 and 100.
+	 * @return a duration, in microseconds, longer than the given percentile of the recorded durations. 0 if none was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if(total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for(int i = 0 ; i < BUCKETS ; i++) {
+			seen += buckets.get(i);
+			if(seen >= rank) {
+				return Math.min(1L << i, getMax());
+			}
+		}
+		return getMax(); // Durations recorded while counting
+	}
+}
@@ -0,0 +1,178 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads protocol messages from a blocking stream, in either framing mode (see Framing).</br>
+ * Every message is read into the same buffer, which only grows when a bigger message comes in, 
+ * and is decoded in one pass.</br>
+ * Not thread-safe : a connection should have exactly one reader.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class MessageReader {
+	/**
+	 * The charset of LINE messages. Same as the InputStreamReaders used on both sides until now.
+	 */
+	private static final Charset lineCharset = Charset.defaultCharset();
+	
+	private final InputStream in;
+	private Framing framing = Framing.LINE;
+	
+	/**
+	 * If true, LENGTH frames can have a compressed payload.
+	 */
+	private boolean compression = false;
+	
+	/**
+	 * The reusable buffer.
+	 */
+	private byte[] buffer = new byte[8192];
+	
+	/**
+	 * @param in : the stream to read from. Should be buffered, since LINE messages are read one byte at a time.
+	 */
+	public MessageReader(InputStream in) {
+		this.in = in;
+	}
+	
+	/**
+	 * Reads the next message.
+	 * @return the message, without its delimiters, or null if the stream ended first.
+	 * @throws IOException : if the stream can't be read, or a frame header is invalid.
+	 */
+	public String read() throws IOException {
+		switch(framing) {
+		case LENGTH:
+			return readFrame();
+		default:
+			return readLines();
+		}
+	}
+	
+	/**
+	 * LINE mode : concatenates every line received until no more data is available 
+	 * (useful in the case of pretty printed JSON).
+	 */
+	private String readLines() throws IOException {
+		int size = 0;
+		boolean lineEnded = false;
+		while(!lineEnded || in.available() > 0) {
+			int b = in.read();
+			if(b == -1) {
+				break;
+			}
+			lineEnded = (b == '\n');
+			if(lineEnded) {
+				if(size > 0 && buffer[size - 1] == '\r') {
+					size--;
+				}
+			} else {
+				ensureCapacity(size + 1);
+				buffer[size++] = (byte) b;
+			}
+		}
+		
+		if(size == 0 && !lineEnded) {
+			return null; // End of stream
+		}
+		return new String(buffer, 0, size, lineCharset);
+	}
+	
+	/**
+	 * LENGTH mode : reads a header, then exactly the announced number of bytes.
+	 */
+	private String readFrame() throws IOException {
+		if(!readFully(Framing.HEADER_SIZE)) {
+			return null; // End of stream
+		}
+		int length = decodeHeader(buffer, compression);
+		boolean compressed = isCompressed(buffer);
+		
+		ensureCapacity(length);
+		if(!readFully(length)) {
+			throw new IOException("Stream ended in the middle of a frame");
+		}
+		if(compressed) {
+			return new String(Compression.inflate(buffer, length), Framing.FRAME_CHARSET);
+		}
+		return new String(buffer, 0, length, Framing.FRAME_CHARSET);
+	}
+	
+	/**
+	 * Decodes a LENGTH frame's header.
+	 * @param header : a buffer starting with the header's bytes
+	 * @param compression : true if compressed payloads were negotiated.
+	 * @return the length of the payload, as sent
+	 * @throws IOException : if the header is invalid
+	 */
+	public static int decodeHeader(byte[] header, boolean compression) throws IOException {
+		int value = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+		int flags = value & ~Framing.LENGTH_MASK;
+		if(flags != 0 && !(compression && flags == Compression.COMPRESSED_FLAG)) {
+			throw new IOException("Unsupported frame flags");
+		}
+		int length = value & Framing.LENGTH_MASK;
+		if(length > Framing.MAX_FRAME_SIZE) {
+			throw new IOException("Frame too big : " + length + " bytes");
+		}
+		return length;
+	}
+	
+	/**
+	 * @param header : a buffer starting with a valid header's bytes
+	 * @return true if the frame's payload is compressed
+	 */
+	public static boolean isCompressed(byte[] header) {
+		return (header[0] & 0x80) != 0;
+	}
+	
+	/**
+	 * Reads exactly length bytes at the beginning of the buffer.
+	 * @return false if the stream ended before the first byte.
+	 */
+	private boolean readFully(int length) throws IOException {
+		int read = 0;
+		while(read < length) {
+			int count = in.read(buffer, read, length - read);
+			if(count == -1) {
+				if(read == 0) {
+					return false;
+				}
+				throw new IOException("Stream ended in the middle of a frame");
+			}
+			read += count;
+		}
+		return true;
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(buffer.length < capacity) {
+			byte[] newBuffer = new byte[Math.max(capacity, buffer.length * 2)];
+			System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+			buffer = newBuffer;
+		}
+	}
+	
+	
+	
+	// Getters and setters
+	
+	public Framing getFraming() {
+		return framing;
+	}
+	
+	public void setFraming(Framing framing) {
+		this.framing = framing;
+	}
+	
+	public boolean getCompression() {
+		return compression;
+	}
+	
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+}
@@ -0,0 +1,191 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes protocol messages to a blocking stream, in either framing mode (see Framing).</br>
+ * Messages can be given as Strings, or as StreamableMessages : in LINE mode, these are written straight to the stream,
+ * without ever being built in memory. In LENGTH mode, they are written to a reusable buffer first, since the header
+ * needs their length.</br>
+ * In LENGTH mode, the payloads bigger than the compression threshold can be compressed (see Compression).</br>
+ * Thread-safe : each message is written and flushed atomically.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public class MessageWriter {
+	/**
+	 * The charset of LINE messages. Same as the PrintWriters used on both sides until now.
+	 */
+	private static final Charset lineCharset = Charset.defaultCharset();
+	
+	private final OutputStream out;
+	private volatile Framing framing = Framing.LINE;
+	
+	/**
+	 * LENGTH frames' payloads of at least this many bytes are compressed. -1 disables compression.
+	 */
+	private volatile int compressionThreshold = -1;
+	
+	/**
+	 * Encodes StreamableMessages in LINE mode. Writes to out.
+	 */
+	private final Writer lineWriter;
+	
+	/**
+	 * Holds StreamableMessages in LENGTH mode, until their length is known. Reused for every message.
+	 */
+	private ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream(8192);
+	
+	/**
+	 * The frame buffer is replaced after holding a message bigger than this, so that one big response doesn't keep
+	 * its memory for the rest of the connection.
+	 */
+	private static final int FRAME_BUFFER_MAX_RETAINED_SIZE = 1024 * 1024;
+	
+	/**
+	 * @param out : the stream to write to. Should be buffered, since the header and payload of a frame are written separately.
+	 */
+	public MessageWriter(OutputStream out) {
+		this.out = out;
+		this.lineWriter = new OutputStreamWriter(out, lineCharset);
+	}
+	
+	/**
+	 * Writes and flushes a message.
+	 * @param message : the message, without any delimiter.
+	 * @throws IOException : if the stream can't be written to.
+	 */
+	public synchronized void write(String message) throws IOException {
+		switch(framing) {
+		case LENGTH:
+			out.write(encodeFrame(message, compressionThreshold));
+			break;
+		default:
+			out.write((message + System.lineSeparator()).getBytes(lineCharset));
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Writes and flushes a message, without building it as a String.
+	 * @param message : the message
+	 * @throws IOException : if the stream can't be written to, or the message can't be completed.
+	 */
+	public void write(StreamableMessage message) throws IOException {
+		write(null, message);
+	}
+	
+	/**
+	 * Writes and flushes a message, without building it as a String.
+	 * @param head : written right before the message, in the same frame. Can be null.
+	 * @param message : the message
+	 * @throws IOException : if the stream can't be written to, or the message can't be completed.
+	 */
+	public synchronized void write(String head, StreamableMessage message) throws IOException {
+		switch(framing) {
+		case LENGTH:
+			frameBuffer.reset();
+			Writer frameWriter = new OutputStreamWriter(frameBuffer, Framing.FRAME_CHARSET);
+			if(head != null) {
+				frameWriter.write(head);
+			}
+			message.writeTo(frameWriter);
+			frameWriter.flush();
+			
+			if(compressionThreshold != -1 && frameBuffer.size() >= compressionThreshold) {
+				out.write(encodeFrame(frameBuffer.toByteArray(), frameBuffer.size(), compressionThreshold));
+			} else {
+				byte[] header = new byte[Framing.HEADER_SIZE];
+				writeHeader(header, frameBuffer.size());
+				out.write(header);
+				frameBuffer.writeTo(out);
+			}
+			if(frameBuffer.size() > FRAME_BUFFER_MAX_RETAINED_SIZE) {
+				frameBuffer = new ByteArrayOutputStream(8192);
+			}
+			break;
+		default:
+			if(head != null) {
+				lineWriter.write(head);
+			}
+			message.writeTo(lineWriter);
+			lineWriter.write(System.lineSeparator());
+			lineWriter.flush();
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Encodes a message as a LENGTH frame : header, then payload.
+	 * @param message : the message
+	 * @return the frame's bytes
+	 */
+	public static byte[] encodeFrame(String message) {
+		return encodeFrame(message, -1);
+	}
+	
+	/**
+	 * Encodes a message as a LENGTH frame : header, then payload, compressed if it is big enough.
+	 * @param message : the message
+	 * @param compressionThreshold : the size from which the payload is compressed, or -1 to never compress it.
+	 * @return the frame's bytes
+	 */
+	public static byte[] encodeFrame(String message, int compressionThreshold) {
+		byte[] payload = message.getBytes(Framing.FRAME_CHARSET);
+		return encodeFrame(payload, payload.length, compressionThreshold);
+	}
+	
+	private static byte[] encodeFrame(byte[] payload, int length, int compressionThreshold) {
+		int flags = 0;
+		if(compressionThreshold != -1 && length >= compressionThreshold) {
+			byte[] compressed = Compression.deflate(payload, length);
+			if(compressed.length < length) { // Already compressed data can grow
+				payload = compressed;
+				length = compressed.length;
+				flags = Compression.COMPRESSED_FLAG;
+			}
+		}
+		byte[] frame = new byte[Framing.HEADER_SIZE + length];
+		writeHeader(frame, flags | length);
+		System.arraycopy(payload, 0, frame, Framing.HEADER_SIZE, length);
+		return frame;
+	}
+	
+	/**
+	 * Writes a LENGTH frame's header at the beginning of a buffer.
+	 */
+	private static void writeHeader(byte[] frame, int header) {
+		frame[0] = (byte) (header >>> 24);
+		frame[1] = (byte) (header >>> 16);
+		frame[2] = (byte) (header >>> 8);
+		frame[3] = (byte) header;
+	}
+	
+	
+	
+	// Getters and setters
+	
+	public Framing getFraming() {
+		return framing;
+	}
+	
+	public void setFraming(Framing framing) {
+		this.framing = framing;
+	}
+	
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * @param compressionThreshold : LENGTH frames' payloads of at least this many bytes are compressed. -1 disables compression.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+}
@@ -0,0 +1,19 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A message which can write itself to a Writer, instead of being built as a String first.</br>
+ * MessageWriter uses this to send big responses without holding all of them in memory.
+ * @version R3 sprint 3
+ * @author Kappa-V
+ */
+public interface StreamableMessage {
+	/**
+	 * Writes the whole message, without any delimiter.
+	 * @param out : where to write the message
+	 * @throws IOException : if out can't be written to, or the message can't be completed.
+	 */
+	public void writeTo(Writer out) throws IOException;
+}